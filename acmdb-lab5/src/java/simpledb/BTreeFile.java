@@ -25,6 +25,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final PageChannel pageChannel;
+	private final int pageSize;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +37,29 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, 0);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file whose leaf,
+	 * internal and header pages have the specified size.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param pageSize - the size of the pages of this file in bytes, or 0 to use
+	 *            the page size of the buffer pool
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
+		if (pageSize < 0)
+			throw new IllegalArgumentException("negative page size " + pageSize);
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.pageChannel = new PageChannel(f);
+		this.pageSize = pageSize;
 	}
 
 	/**
@@ -70,6 +91,15 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Returns the size of the leaf, internal and header pages of this file.
+	 * The root pointer page always has {@link BTreeRootPtrPage#getPageSize()}
+	 * bytes.
+	 */
+	public int getPageSize() {
+		return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -79,14 +109,12 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
+				int retval = pageChannel.read(pageBuf, 0);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -98,19 +126,14 @@ public class BTreeFile implements DbFile {
 				return p;
 			}
 			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+				byte pageBuf[] = new byte[getPageSize()];
+				int retval = pageChannel.read(pageBuf, pageOffset(id.pageNumber()));
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
-				if (retval < BufferPool.getPageSize()) {
+				if (retval < getPageSize()) {
 					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
+							+ getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
@@ -128,14 +151,6 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -149,24 +164,37 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			pageChannel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			pageChannel.write(data, pageOffset(page.getId().pageNumber()));
 		}
 	}
 
+	/**
+	 * Returns the file offset of the specified (non root pointer) page.
+	 * Page numbers start at 1; the root pointer page occupies the start of the file.
+	 */
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo-1) * getPageSize();
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		try {
+			return (int) ((pageChannel.size() - BTreeRootPtrPage.getPageSize())/ getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		pageChannel.close();
 	}
 
 	/**
@@ -1001,15 +1029,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(pageChannel.size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(getPageSize());
+				pageChannel.write(emptyRootPtrData, 0);
+				pageChannel.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -1056,7 +1081,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(getPageSize()) + emptySlot;
 			}
 		}
 
@@ -1065,11 +1090,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(getPageSize());
+				pageChannel.append(emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1100,10 +1122,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		pageChannel.write(BTreePage.createEmptyPageData(getPageSize()), pageOffset(emptyPageNo));
 
 		// make sure the page is not in the buffer pool	or in the local cache
 		Database.getBufferPool().discardPage(newPageId);
@@ -1168,7 +1187,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(getPageSize()) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1178,7 +1197,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(getPageSize()) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1194,7 +1213,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(getPageSize());
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
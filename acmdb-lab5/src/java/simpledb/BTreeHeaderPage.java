@@ -19,6 +19,7 @@ public class BTreeHeaderPage implements Page {
 	final BTreePageId pid;
 	final byte header[];
 	final int numSlots;
+	final int pageSize;
 
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
@@ -30,13 +31,14 @@ public class BTreeHeaderPage implements Page {
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
 	 * The format of a BTreeHeaderPage is two pointers to the next and previous
 	 * header pages, followed by a set of bytes indicating which pages in the file
-	 * are used or available
-	 * @see BufferPool#getPageSize()
+	 * are used or available. The page has the page size of its table.
+	 * @see Catalog#getPageSize
 	 * 
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-		this.numSlots = getNumSlots();
+		this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+		this.numSlots = getNumSlots(pageSize);
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the next and prev pointers
@@ -55,7 +57,7 @@ public class BTreeHeaderPage implements Page {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
+		header = new byte[getHeaderSize(pageSize)];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
@@ -75,17 +77,24 @@ public class BTreeHeaderPage implements Page {
 	/**
 	 * Computes the number of bytes in the header while saving room for pointers
 	 */
-	private static int getHeaderSize() {        
+	private static int getHeaderSize(int pageSize) {        
 		// pointerBytes: nextPage and prevPage pointers
 		int pointerBytes = 2 * INDEX_SIZE; 
-		return BufferPool.getPageSize() - pointerBytes;
+		return pageSize - pointerBytes;
 	}
 
 	/**
-	 * Computes the number of slots in the header
+	 * Computes the number of slots in the header of a page of the default size
 	 */
 	public static int getNumSlots() {        
-		return getHeaderSize() * 8;
+		return getNumSlots(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Computes the number of slots in the header of a page of the specified size
+	 */
+	public static int getNumSlots(int pageSize) {        
+		return getHeaderSize(pageSize) * 8;
 	}
 
 	/** Return a view of this page before it was modified
@@ -132,7 +141,7 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -179,8 +188,15 @@ public class BTreeHeaderPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * BTreeHeaderPage of a table with the specified page size.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
@@ -3,10 +3,17 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -30,40 +37,159 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Orders page ids by file, then page number, i.e. in the order they lie on disk. */
+    static final Comparator<PageId> FILE_ORDER = Comparator.comparingInt(PageId::getTableId)
+            .thenComparingInt(PageId::pageNumber);
 
-    private static class Node{
-        private Page page;
-        private Node prev;
-        private Node next;
+    /** Number of pages evicted at a time while the pool shrinks after {@link #resize}. */
+    public static final int RESIZE_BATCH = 64;
+
+    /** Largest number of independently locked partitions of the page table; a power of two. */
+    private static final int MAX_SHARDS = 16;
+
+    /**
+     * Smallest number of pages per partition of the page table. Each
+     * partition runs its own replacement policy, which needs enough pages to
+     * tell hot pages from cold ones, so small pools are not partitioned.
+     */
+    private static final int MIN_SHARD_PAGES = 64;
 
-        public Node(Page page, Node prev, Node next){
-            this.page = page;
-            this.prev = prev;
-            this.next = next;
-        }
 
-        public void setPage(Page page){
+    /**
+     * A frame of the buffer pool: a cached page together with the state the
+     * replacement policies keep about it. The fields other than the page are
+     * owned by the policy of the shard holding the frame.
+     */
+    public static final class Frame{
+        private final PageId pid;
+        private volatile Page page;
+        /** Size in bytes of the frame holding the page. */
+        private final int size;
+
+        // LruPolicy: position in the recency list
+        private Frame prev;
+        private Frame next;
+        // ClockPolicy: reference bit and position on the clock
+        private volatile boolean referenced;
+        private int slot;
+        // LruKPolicy: logical times of the last K accesses, most recent first
+        private long[] history;
+        /** The scan ring the page was read for, while only that scan uses it. */
+        private volatile BufferRing ring;
+        /** Set while the dirty page is being written back; it cannot be evicted meanwhile. */
+        private volatile boolean writing;
+        /** Number of pins; a pinned frame is never evicted. */
+        private final AtomicInteger pins;
+        /**
+         * Short-term latch on the contents of the page, separate from the
+         * transaction locks of the LockManager: held shared while the page is
+         * copied out (written back), exclusive while it is changed in place.
+         */
+        private final ReentrantReadWriteLock latch;
+
+        private Frame(PageId pid, Page page, int size){
+            this.pid = pid;
             this.page = page;
+            this.size = size;
+            this.pins = new AtomicInteger();
+            this.latch = new ReentrantReadWriteLock();
         }
+
+        public PageId getPageId(){return this.pid;}
         public Page getPage(){return this.page;}
+        public int getPinCount(){return this.pins.get();}
+
+        /** @return true if the page is not dirty, nor being written back */
+        public boolean isClean(){
+            return this.page.isDirty() == null && !this.writing;
+        }
+
+        /** @return true if the page can be evicted, i.e. it is clean and not pinned */
+        public boolean isEvictable(){
+            return isClean() && this.pins.get() == 0;
+        }
+
+        /**
+         * Latches are held only for the duration of one access to the page,
+         * never across calls into the buffer pool, which may read, lock or
+         * write back other pages.
+         */
+        public void latchShared(){this.latch.readLock().lock();}
+        public void unlatchShared(){this.latch.readLock().unlock();}
+        public void latchExclusive(){this.latch.writeLock().lock();}
+        public void unlatchExclusive(){this.latch.writeLock().unlock();}
+
+        private boolean tryLatchShared(){
+            return this.latch.readLock().tryLock();
+        }
     }
 
-    private static class LRUCache{
-        private Node head;
-        private Node tail;
-        private int numPages;
-        private int maxPages;
-        private HashMap<PageId, Node> pageMap;
+    /**
+     * Decides which page of a shard of the buffer pool is evicted next. Each
+     * shard has its own instance. inserted, removed and victim are called
+     * while the shard is locked; accessed is called on every hit without any
+     * lock, so implementations that update shared state there must
+     * synchronize themselves, and must ignore frames they no longer track.
+     */
+    public interface ReplacementPolicy{
+        /** A page was cached in the specified frame. */
+        void inserted(Frame f);
 
-        public LRUCache(int maxPages){
-            this.head = null;
-            this.tail = null;
-            this.numPages = 0;
-            this.maxPages = maxPages;
-            this.pageMap = new HashMap<PageId, Node>();
+        /** The page of the specified frame was requested. */
+        void accessed(Frame f);
+
+        /** The specified frame was dropped from the shard. */
+        void removed(Frame f);
+
+        /**
+         * Chooses an evictable frame (see {@link Frame#isEvictable}) to
+         * evict and stops tracking it.
+         * @return the frame, or null if every frame is dirty or pinned
+         */
+        Frame victim();
+
+        /**
+         * Returns the dirty frames among the specified number of frames this
+         * policy would evict next, coldest first, so they can be written back
+         * before eviction reaches them.
+         */
+        List<Frame> dirtyFrames(int depth);
+    }
+
+    /**
+     * The replacement policies provided with the buffer pool; each one is a
+     * factory of per-shard policy instances.
+     *
+     * @see Database#resetBufferPool(int, Supplier)
+     */
+    public enum Policy implements Supplier<ReplacementPolicy>{
+        /** Least recently used; every hit moves the page in a list. */
+        LRU{
+            public ReplacementPolicy get(){return new LruPolicy();}
+        },
+        /** Second chance; a hit only sets a reference bit. */
+        CLOCK{
+            public ReplacementPolicy get(){return new ClockPolicy();}
+        },
+        /** LRU-K with K=2: evicts the page whose second to last access is the oldest. */
+        LRU_2{
+            public ReplacementPolicy get(){return new LruKPolicy(2);}
         }
+    }
+
+    /**
+     * Evicts the least recently used clean page, keeping the frames in a
+     * doubly linked list ordered by recency.
+     */
+    private static class LruPolicy implements ReplacementPolicy{
+        private Frame head;
+        private Frame tail;
 
-        private Node removeNodeFromList(Node n){
+        private boolean linked(Frame n){
+            return n == this.head || n.prev != null;
+        }
+
+        private void unlink(Frame n){
             if(n == this.head)
                 this.head = n.next;
             if(n == this.tail)
@@ -74,10 +200,9 @@ public class BufferPool {
                 n.next.prev = n.prev;
             n.prev = null;
             n.next = null;
-            return n;
         }
 
-        private void insertAtBeginning(Node n){
+        private void insertAtBeginning(Frame n){
             if(this.head == null) {
                 assert this.tail == null;
                 this.head = n;
@@ -92,111 +217,1100 @@ public class BufferPool {
             }
         }
 
-        private Node removeTail(){
-            Node tail = this.tail;
-            Node newtail = tail.prev;
-            if(tail.prev == null){
-                assert this.head == this.tail;
-                this.head = null;
+        public synchronized void inserted(Frame f){
+            insertAtBeginning(f);
+        }
+
+        public synchronized void accessed(Frame f){
+            if(!linked(f) || f == this.head)
+                return;
+            unlink(f);
+            insertAtBeginning(f);
+        }
+
+        public synchronized void removed(Frame f){
+            if(linked(f))
+                unlink(f);
+        }
+
+        public synchronized Frame victim(){
+            Frame toRemove = this.tail;
+            while (toRemove != null && !toRemove.isEvictable())
+                toRemove = toRemove.prev;
+            if(toRemove != null)
+                unlink(toRemove);
+            return toRemove;
+        }
+
+        public synchronized List<Frame> dirtyFrames(int depth){
+            ArrayList<Frame> dirty = new ArrayList<Frame>();
+            for(Frame f = this.tail; f != null && depth-- > 0; f = f.prev) {
+                if(!f.isClean())
+                    dirty.add(f);
+            }
+            return dirty;
+        }
+    }
+
+    /**
+     * Second-chance replacement: a hand sweeps the frames, clearing the
+     * reference bit of recently used pages and evicting the first clean page
+     * whose bit is already clear. A hit only sets the bit of its frame.
+     */
+    private static class ClockPolicy implements ReplacementPolicy{
+        private final ArrayList<Frame> clock = new ArrayList<Frame>();
+        /** Positions of the clock left empty by removed frames. */
+        private final ArrayList<Integer> freeSlots = new ArrayList<Integer>();
+        private int hand = 0;
+
+        public void inserted(Frame f){
+            f.referenced = true;
+            if(this.freeSlots.isEmpty()) {
+                f.slot = this.clock.size();
+                this.clock.add(f);
+            }else {
+                f.slot = this.freeSlots.remove(this.freeSlots.size() - 1);
+                this.clock.set(f.slot, f);
             }
-            tail.prev = null;
-            tail.next = null;
-            this.tail = newtail;
-            return tail;
-        }
-
-        private Node removeLastNotDirty(){
-            //System.out.println("try remove last!");
-            Node toRemove = this.tail;
-            //System.out.println(toRemove.getPage().toString());
-            while (toRemove != null){
-                if(toRemove.getPage().isDirty() == null)
+        }
+
+        public void accessed(Frame f){
+            f.referenced = true;
+        }
+
+        public void removed(Frame f){
+            if(f.slot < this.clock.size() && this.clock.get(f.slot) == f) {
+                this.clock.set(f.slot, null);
+                this.freeSlots.add(f.slot);
+            }
+        }
+
+        public Frame victim(){
+            int n = this.clock.size();
+            // two turns clear every reference bit, so an evictable page is found if any
+            for(int i = 0; i < 2 * n; i++) {
+                if(this.hand >= n)
+                    this.hand = 0;
+                Frame f = this.clock.get(this.hand++);
+                if(f == null || !f.isEvictable())
+                    continue;
+                if(f.referenced) {
+                    f.referenced = false;
+                    continue;
+                }
+                removed(f);
+                return f;
+            }
+            return null;
+        }
+
+        public List<Frame> dirtyFrames(int depth){
+            ArrayList<Frame> dirty = new ArrayList<Frame>();
+            int n = this.clock.size();
+            for(int i = 0; i < Math.min(depth, n); i++) {
+                Frame f = this.clock.get((this.hand + i) % n);
+                if(f != null && !f.isClean())
+                    dirty.add(f);
+            }
+            return dirty;
+        }
+    }
+
+    /**
+     * LRU-K replacement: evicts the clean page whose K-th most recent access
+     * is the oldest. Pages accessed fewer than K times are evicted first, in
+     * LRU order, so pages touched once by a scan do not push out pages that
+     * are used repeatedly. Access history is only kept for cached pages.
+     */
+    private static class LruKPolicy implements ReplacementPolicy{
+        private final int k;
+        private final HashSet<Frame> frames = new HashSet<Frame>();
+        private long clock = 0;
+        /** Eviction order: the K-th access first (0 = never), then the last one. */
+        private final Comparator<Frame> order;
+
+        LruKPolicy(int k){
+            this.k = k;
+            this.order = (a, b) -> a.history[k - 1] != b.history[k - 1]
+                    ? Long.compare(a.history[k - 1], b.history[k - 1])
+                    : Long.compare(a.history[0], b.history[0]);
+        }
+
+        public synchronized void inserted(Frame f){
+            f.history = new long[this.k];
+            f.history[0] = ++this.clock;
+            this.frames.add(f);
+        }
+
+        public synchronized void accessed(Frame f){
+            if(f.history == null)
+                return;
+            System.arraycopy(f.history, 0, f.history, 1, this.k - 1);
+            f.history[0] = ++this.clock;
+        }
+
+        public synchronized void removed(Frame f){
+            this.frames.remove(f);
+        }
+
+        public synchronized Frame victim(){
+            Frame best = null;
+            for(Frame f : this.frames) {
+                if(!f.isEvictable())
+                    continue;
+                if(best == null || this.order.compare(f, best) < 0)
+                    best = f;
+            }
+            if(best != null)
+                this.frames.remove(best);
+            return best;
+        }
+
+        public synchronized List<Frame> dirtyFrames(int depth){
+            ArrayList<Frame> coldest = new ArrayList<Frame>(this.frames);
+            coldest.sort(this.order);
+            ArrayList<Frame> dirty = new ArrayList<Frame>();
+            for(int i = 0; i < Math.min(depth, coldest.size()); i++) {
+                if(!coldest.get(i).isClean())
+                    dirty.add(coldest.get(i));
+            }
+            return dirty;
+        }
+    }
+
+    /**
+     * One partition of the page table: the pages whose ids hash to it and the
+     * replacement policy ordering them. Lookups are lock-free; changes lock
+     * the shard, so requests for pages in different shards never contend.
+     */
+    private static class Shard{
+        private final ConcurrentHashMap<PageId, Frame> frames;
+        private final ReplacementPolicy policy;
+
+        public Shard(ReplacementPolicy policy){
+            this.frames = new ConcurrentHashMap<PageId, Frame>();
+            this.policy = policy;
+        }
+
+        /**
+         * Looks up a page on behalf of the specified ring (or null); a page
+         * read for another ring is handed over to the replacement policy.
+         */
+        public Page get(PageId pageId, BufferRing ring){
+            Frame f = this.frames.get(pageId);
+            if(f == null)
+                return null;
+            if(f.ring != null && f.ring != ring)
+                f.ring = null;
+            this.policy.accessed(f);
+            return f.page;
+        }
+
+        public boolean contains(PageId pageId){
+            return this.frames.containsKey(pageId);
+        }
+
+        public int size(){
+            return this.frames.size();
+        }
+
+        public void addPageIds(List<PageId> ids){
+            ids.addAll(this.frames.keySet());
+        }
+
+        /**
+         * Claims up to max of the dirty frames among the depth frames the
+         * policy would evict next for writing them back. A claimed frame is
+         * not evictable, nor claimed again, until its writing flag is cleared.
+         * @param writing counts the claimed frames
+         */
+        public synchronized List<Frame> claimDirty(int depth, int max, AtomicInteger writing){
+            ArrayList<Frame> claimed = new ArrayList<Frame>();
+            for(Frame f : this.policy.dirtyFrames(depth)) {
+                if(claimed.size() >= max)
                     break;
-                else
-                    toRemove = toRemove.prev;
+                if(!f.writing && f.page.isDirty() != null) {
+                    writing.incrementAndGet();
+                    f.writing = true;
+                    claimed.add(f);
+                }
             }
-            if(toRemove != null)
-                removeNodeFromList(toRemove);
-            return toRemove;
+            return claimed;
+        }
+
+        /**
+         * Replaces the cached version of a page.
+         * @return the version replaced, or null if the page is not cached
+         */
+        public synchronized Page replace(PageId pageId, Page page){
+            Frame f = this.frames.get(pageId);
+            if(f == null)
+                return null;
+            Page old = f.page;
+            f.page = page;
+            f.ring = null;
+            this.policy.accessed(f);
+            return old;
         }
 
-        public synchronized Page get(PageId pageId){
-            if(!pageMap.containsKey(pageId))
+        /**
+         * Caches a page in a frame of the specified size, read for the
+         * specified ring (or null).
+         * @return false if a version of the page is already cached
+         */
+        public synchronized boolean insert(PageId pageId, Page page, int size, BufferRing ring){
+            if(this.frames.containsKey(pageId))
+                return false;
+            Frame f = new Frame(pageId, page, size);
+            f.ring = ring;
+            this.frames.put(pageId, f);
+            this.policy.inserted(f);
+            return true;
+        }
+
+        public synchronized Frame remove(PageId pageId){
+            Frame f = this.frames.remove(pageId);
+            if(f != null)
+                this.policy.removed(f);
+            return f;
+        }
+
+        /**
+         * Drops a page that fell out of the specified ring, if it is
+         * evictable and still only used by that ring.
+         * @return its frame, or null if the page stays cached
+         */
+        public synchronized Frame removeFromRing(PageId pageId, BufferRing ring){
+            Frame f = this.frames.get(pageId);
+            if(f == null || f.ring != ring)
                 return null;
-            else{
-                Node n = pageMap.get(pageId);
-                Node n1 = removeNodeFromList(n);
-                insertAtBeginning(n1);
-                return n.page;
+            f.ring = null;
+            if(!f.isEvictable())
+                return null;
+            this.frames.remove(pageId);
+            this.policy.removed(f);
+            return f;
+        }
+
+        /**
+         * Drops the evictable page chosen by the replacement policy.
+         * @return its frame, or null if every page of the shard is dirty or pinned
+         */
+        public synchronized Frame evict(){
+            Frame f = this.policy.victim();
+            if(f != null)
+                this.frames.remove(f.pid);
+            return f;
+        }
+
+        /**
+         * Pins the frame of a cached page, recording an access.
+         * @return the frame, or null if the page is not cached
+         */
+        public synchronized Frame pin(PageId pageId, BufferRing ring){
+            Frame f = this.frames.get(pageId);
+            if(f == null)
+                return null;
+            if(f.ring != null && f.ring != ring)
+                f.ring = null;
+            f.pins.incrementAndGet();
+            this.policy.accessed(f);
+            return f;
+        }
+
+        public Frame getFrame(PageId pageId){
+            return this.frames.get(pageId);
+        }
+
+        /**
+         * Writes every cached page back. Not synchronized: the shard is not
+         * locked while waiting for the latch of a page.
+         */
+        public void flushAll(BufferPoolStats stats) throws IOException{
+            for(Frame f : this.frames.values()) {
+                f.latchShared();
+                try {
+                    Database.getCatalog().getDatabaseFile(f.pid.getTableId()).writePage(f.page);
+                }finally {
+                    f.unlatchShared();
+                }
+                stats.flushed(f.pid, f.size);
             }
         }
+    }
+
+    /**
+     * The page table of the buffer pool. Pages are partitioned over up to
+     * {@link #MAX_SHARDS} independently locked {@link Shard}s by the hash of
+     * their id, so concurrent requests for different pages only contend when
+     * they fall in the same shard; a shard is only added per
+     * {@link #MIN_SHARD_PAGES} pages of budget. The budget is global: every
+     * page takes a frame of the page size of its table, and when a new page
+     * does not fit, the replacement policy of a shard picks a clean page to
+     * evict, visiting the shards in turn. The budget is either a fixed
+     * number of bytes, or a number of pages of the default page size, which
+     * follows changes of the default page size.
+     * <p>
+     * Under STEAL, when every cached page is dirty, a dirty page is written
+     * back to make room (see {@link #writeBack}); the page cleaner does the
+     * same ahead of time for dirty pages close to eviction.
+     */
+    private static class PageTable{
+        private final Shard[] shards;
+        private final AtomicLong usedBytes;
+        private final AtomicInteger numPages;
+        /** Frames being reserved, or reserved whose page is not in a shard yet. */
+        private final AtomicInteger inFlight;
+        /** Frames claimed for writing back whose page is not written yet. */
+        private final AtomicInteger writing;
+        /** Frames taken out of a shard whose bytes are not given back yet. */
+        private final AtomicInteger releasing;
+        /**
+         * Counts the frames that may have become evictable: pages put in a
+         * shard, pages written back and frames unpinned. An eviction pass
+         * that found nothing only proves the pool full if it did not change.
+         */
+        private final AtomicLong settled;
+        private final AtomicInteger evictionHand;
+        private volatile int maxPages;
+        private volatile long maxBytes;
+        /** Told about every page that leaves the table, or null. */
+        private final Consumer<Page> retired;
+        /** The buffer pool this table belongs to; write-backs lock it. */
+        private final BufferPool owner;
+        private volatile boolean steal;
+
+        /**
+         * @param maxPages the budget in pages of the default size; only used
+         *            if maxBytes is 0
+         * @param maxBytes the budget in bytes, or 0
+         * @param policy creates the replacement policy of each shard
+         * @param retired called with every page evicted, removed or replaced
+         *            by another version, or null
+         * @param owner the buffer pool of this table
+         */
+        public PageTable(int maxPages, long maxBytes, Supplier<? extends ReplacementPolicy> policy,
+                Consumer<Page> retired, BufferPool owner){
+            this.maxPages = maxPages;
+            this.maxBytes = maxBytes;
+            this.retired = retired;
+            this.owner = owner;
+            this.steal = false;
+            long pages = getMaxBytes() / BufferPool.getPageSize();
+            int numShards = 1;
+            while(numShards < MAX_SHARDS && pages >= 2L * numShards * MIN_SHARD_PAGES)
+                numShards *= 2;
+            this.shards = new Shard[numShards];
+            for(int i = 0; i < numShards; i++)
+                this.shards[i] = new Shard(policy.get());
+            this.usedBytes = new AtomicLong();
+            this.numPages = new AtomicInteger();
+            this.inFlight = new AtomicInteger();
+            this.writing = new AtomicInteger();
+            this.releasing = new AtomicInteger();
+            this.settled = new AtomicLong();
+            this.evictionHand = new AtomicInteger();
+        }
+
+        private Shard shard(PageId pageId){
+            int h = pageId.hashCode();
+            return this.shards[(h ^ (h >>> 16)) & (this.shards.length - 1)];
+        }
+
+        public Page get(PageId pageId, BufferRing ring){
+            return shard(pageId).get(pageId, ring);
+        }
 
-        public synchronized void put(PageId pageId, Page page) throws IOException, DbException{
+        public boolean contains(PageId pageId){
+            return shard(pageId).contains(pageId);
+        }
+
+        public Frame pin(PageId pageId, BufferRing ring){
+            return shard(pageId).pin(pageId, ring);
+        }
+
+        public Frame getFrame(PageId pageId){
+            return shard(pageId).getFrame(pageId);
+        }
+
+        /**
+         * Caches the page, replacing any cached version of it.
+         */
+        public void put(PageId pageId, Page page) throws DbException{
             if(page == null) return;
-            if(this.pageMap.containsKey(pageId)){
-                Node n = pageMap.get(pageId);
-                Node n1 = removeNodeFromList(n);
-                n1.setPage(page);
-                insertAtBeginning(n1);
-            }else {
-                Node n;
-                if (this.numPages == this.maxPages) {
-                    n = removeLastNotDirty();
-                    if(n == null)
-                        throw new DbException("Cache full, can not evict!.");
-                    Database.getCatalog().getDatabaseFile(n.getPage().getId().getTableId()).writePage(n.getPage());
-                    this.pageMap.remove(n.page.getId());
-                    n.setPage(page);
+            Shard shard = shard(pageId);
+            Page old = shard.replace(pageId, page);
+            if(old != null) {
+                retire(old, page);
+                return;
+            }
+            int size = Database.getCatalog().getPageSize(pageId.getTableId());
+            reserve(size);
+            boolean inserted = shard.insert(pageId, page, size, null);
+            if(inserted)
+                this.numPages.incrementAndGet();
+            else
+                this.usedBytes.addAndGet(-size);
+            landed();
+            if(!inserted) {
+                // cached concurrently
+                retire(shard.replace(pageId, page), page);
+            }
+        }
+
+        /**
+         * Caches the page only if no version of it is cached yet. A page read
+         * for a ring pushes the oldest page of the ring out once it is full.
+         * @param ring the ring the page was read for, or null
+         * @return true if the page was added
+         */
+        public boolean putIfAbsent(PageId pageId, Page page, BufferRing ring) throws DbException{
+            Shard shard = shard(pageId);
+            if(page == null || shard.contains(pageId)) return false;
+            int size = Database.getCatalog().getPageSize(pageId.getTableId());
+            reserve(size);
+            boolean inserted = shard.insert(pageId, page, size, ring);
+            if(inserted)
+                this.numPages.incrementAndGet();
+            else
+                this.usedBytes.addAndGet(-size);
+            landed();
+            if(inserted && ring != null) {
+                PageId recycled = ring.add(pageId);
+                if(recycled != null) {
+                    this.releasing.incrementAndGet();
+                    Frame n = shard(recycled).removeFromRing(recycled, ring);
+                    if(n != null)
+                        this.owner.stats.evicted(n.pid);
+                    release(n);
+                }
+            }
+            return inserted;
+        }
+
+        /**
+         * Gives back the bytes of a frame taken out of its shard, or nothing
+         * if n is null; either way ends a release counted in releasing.
+         */
+        private void release(Frame n){
+            if(n != null) {
+                this.numPages.decrementAndGet();
+                this.usedBytes.addAndGet(-n.size);
+            }
+            this.releasing.decrementAndGet();
+            if(n != null)
+                retire(n.page, null);
+        }
+
+        private void retire(Page old, Page current){
+            if(this.retired != null && old != null && old != current)
+                this.retired.accept(old);
+        }
+
+        /**
+         * Claims a frame of the specified size, evicting clean pages until it
+         * fits; a single page always fits in an empty pool. Under STEAL a
+         * dirty page is written back when no page is clean. The caller must
+         * call {@link #landed} once the page is in its shard.
+         */
+        private void reserve(int size) throws DbException{
+            while(true) {
+                long used = this.usedBytes.get();
+                if(used == 0 || used + size <= getMaxBytes()) {
+                    // counted before the bytes are taken, so a pass that sees
+                    // them taken back after an eviction also sees why
+                    this.inFlight.incrementAndGet();
+                    if(this.usedBytes.compareAndSet(used, used + size))
+                        return;
+                    this.inFlight.decrementAndGet();
+                }else {
+                    // read before the pass: a page that arrives or is written
+                    // back during it may be evictable once it is over
+                    long settled = this.settled.get();
+                    boolean busy = busy();
+                    if(!evictOne() && !(this.steal && stealOne())) {
+                        if(!busy && !busy() && this.usedBytes.get() == used
+                                && this.settled.get() == settled)
+                            throw new DbException("Cache full, can not evict!.");
+                        Thread.yield();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if a frame is being filled, written back or given
+         *         back, so the pool may have room or an evictable page soon
+         */
+        private boolean busy(){
+            return this.inFlight.get() != 0 || this.writing.get() != 0 || this.releasing.get() != 0;
+        }
+
+        /** A frame reserved by {@link #reserve} is in its shard, or was given back. */
+        private void landed(){
+            this.inFlight.decrementAndGet();
+            this.settled.incrementAndGet();
+        }
+
+        /** A frame was unpinned and may be evictable. */
+        void unpinned(){
+            this.settled.incrementAndGet();
+        }
+
+        /**
+         * Writes back the coldest dirty page of the next shard that has one,
+         * so the next eviction can take it.
+         * @return false if no dirty page is left to write
+         */
+        private boolean stealOne() throws DbException{
+            int start = this.evictionHand.get();
+            for(int i = 0; i < this.shards.length; i++) {
+                List<Frame> claimed = this.shards[(start + i) & (this.shards.length - 1)].claimDirty(Integer.MAX_VALUE, 1, this.writing);
+                if(!claimed.isEmpty()) {
+                    Frame f = claimed.get(0);
+                    try {
+                        if(writeBack(f))
+                            this.owner.stats.dirtyEvicted(f.pid, f.size);
+                    }catch (IOException e){
+                        throw new DbException("could not write back a dirty page: " + e.getMessage());
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes back the dirty pages in the coldest quarter of every shard,
+         * up to max pages.
+         * @return the number of pages written
+         */
+        public int writeBackColdPages(int max) throws IOException{
+            int written = 0;
+            IOException error = null;
+            for(Shard shard : this.shards) {
+                List<Frame> claimed = shard.claimDirty(Math.max(1, shard.size() / 4), max - written, this.writing);
+                for(Frame f : claimed) {
+                    try {
+                        if(writeBack(f)) {
+                            this.owner.stats.flushed(f.pid, f.size);
+                            written++;
+                        }
+                    }catch (IOException e){
+                        if(error == null)
+                            error = e;
+                    }
+                }
+                if(written >= max)
+                    break;
+            }
+            if(error != null)
+                throw error;
+            return written;
+        }
+
+        /**
+         * Writes the dirty page of a frame claimed by {@link Shard#claimDirty}
+         * back to its file and releases the claim. Following the write-ahead
+         * rule, an update record with the before image of the page is logged
+         * and the log forced before the page is written, so the change can
+         * be undone if its transaction aborts (see LogFile#rollback). The
+         * page is copied under its shared latch, so it is never written half
+         * changed; a page whose latch is held exclusively is skipped rather
+         * than waited for, since its writer may be waiting for this pool.
+         * @return true if the page was written
+         */
+        private boolean writeBack(Frame f) throws IOException{
+            try {
+                // the buffer pool before the log, as LogFile requires
+                synchronized (this.owner) {
+                    Page page = f.page;
+                    TransactionId dirtier = page.isDirty();
+                    if(dirtier == null || !f.tryLatchShared())
+                        return false;
+                    try {
+                        LogFile log = Database.getLogFile();
+                        Page before = page.getBeforeImage();
+                        log.logWrite(dirtier, before, page);
+                        log.force();
+                        // snapshots keep reading the committed image
+                        this.owner.versions.stolen(f.pid, before);
+                        page.markDirty(false, null);
+                        try {
+                            Database.getCatalog().getDatabaseFile(f.pid.getTableId()).writePage(page);
+                        }catch (IOException e){
+                            page.markDirty(true, dirtier);
+                            throw e;
+                        }
+                        return true;
+                    }finally {
+                        f.unlatchShared();
+                    }
                 }
-                else {
-                    n = new Node(page, null, null);
-                    this.numPages += 1;
+            }finally {
+                f.writing = false;
+                this.writing.decrementAndGet();
+                this.settled.incrementAndGet();
+            }
+        }
+
+        /**
+         * Evicts the clean page chosen by the policy of the next shard that
+         * has one. Clean pages are identical to their image on disk, so they are
+         * dropped without being written.
+         * @return false if every cached page is dirty
+         */
+        private boolean evictOne(){
+            int start = this.evictionHand.getAndIncrement();
+            this.releasing.incrementAndGet();
+            for(int i = 0; i < this.shards.length; i++) {
+                Frame n = this.shards[(start + i) & (this.shards.length - 1)].evict();
+                if(n != null) {
+                    this.owner.stats.evicted(n.pid);
+                    release(n);
+                    return true;
                 }
-                insertAtBeginning(n);
-                this.pageMap.put(pageId, n);
             }
+            release(null);
+            return false;
+        }
+
+        public long getMaxBytes(){
+            long bytes = this.maxBytes;
+            return bytes > 0 ? bytes : (long) this.maxPages * BufferPool.getPageSize();
         }
 
-        public synchronized boolean contains(PageId pageId){
-            return this.pageMap.containsKey(pageId);
+        /**
+         * Changes the budget; the number of shards stays as it is. Pages
+         * over a smaller budget are left for {@link #shrink} and for the
+         * evictions of later requests.
+         * @param maxPages the budget in pages of the default size; only used
+         *            if maxBytes is 0
+         * @param maxBytes the budget in bytes, or 0
+         */
+        public synchronized void setBudget(int maxPages, long maxBytes){
+            this.maxPages = maxPages;
+            this.maxBytes = maxBytes;
         }
-        public synchronized Page remove(PageId pageId){
-            if(this.pageMap.containsKey(pageId)){
-                Node n = this.pageMap.get(pageId);
-                removeNodeFromList(n);
-                this.pageMap.remove(pageId);
-                this.numPages -= 1;
-                return n.page;
+
+        /**
+         * Evicts clean pages, and under STEAL writes dirty ones back first,
+         * until the cached pages fit the budget or max pages were evicted.
+         * Only one shard is locked at a time, so other requests go on.
+         * @return the number of pages evicted
+         */
+        public int shrink(int max) throws DbException{
+            int evicted = 0;
+            while(evicted < max && this.usedBytes.get() > getMaxBytes()) {
+                if(evictOne())
+                    evicted++;
+                else if(!(this.steal && stealOne()))
+                    break;
             }
-            else return null;
+            return evicted;
+        }
+
+        public long getUsedBytes(){
+            return this.usedBytes.get();
+        }
+
+        public Page remove(PageId pageId){
+            this.releasing.incrementAndGet();
+            Frame n = shard(pageId).remove(pageId);
+            release(n);
+            return n == null ? null : n.page;
         }
-        public synchronized void clear(){
-            this.head = null;
-            this.tail = null;
-            this.numPages = 0;
-            this.pageMap.clear();
+
+        public List<PageId> getPageIds(){
+            ArrayList<PageId> ids = new ArrayList<PageId>(this.numPages.get());
+            for(Shard shard : this.shards)
+                shard.addPageIds(ids);
+            return ids;
         }
 
-        public synchronized void flushAll() throws IOException{
-            for(Node n : this.pageMap.values())
-                Database.getCatalog().getDatabaseFile(n.getPage().getId().getTableId()).writePage(n.getPage());
+        public void flushAll() throws IOException{
+            for(Shard shard : this.shards)
+                shard.flushAll(this.owner.stats);
         }
     }
 
-    private final LRUCache lruCache;
+    private final PageTable pageTable;
     private final LockManager lockManager;
-    private final ConcurrentHashMap<TransactionId, HashMap<PageId, Permissions>> transactionIdPageId;
+    /**
+     * The write set of each transaction: the pages it requested with
+     * READ_WRITE. Each set belongs to one transaction, so recording a page
+     * only contends with the transaction's own requests.
+     */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets;
+    private final ReadAhead readAhead;
+    private final PageCleaner pageCleaner;
+    private final ConcurrentHashMap<TransactionId, ArrayList<Page>> appendedPages;
+    private final FrameArena arena;
+    /** Pages out of the page table whose arena frame is not reclaimed yet. */
+    private final ConcurrentLinkedQueue<HeapPage> retiredPages;
+    private final BufferPoolStats stats;
+    /** Frames pinned by each transaction, once per pin. */
+    private final ConcurrentHashMap<TransactionId, ArrayList<Frame>> pinnedFrames;
+    private final VersionStore versions;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
+     * The budget is numPages pages of the default page size, so it holds
+     * fewer pages of tables with larger pages and more of smaller ones.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @see #getPageSize()
      */
     public BufferPool(int numPages) {
+        this(numPages, Policy.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with the specified replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy creates the replacement policy of each shard of the
+     *            pool, e.g. one of {@link Policy}
+     */
+    public BufferPool(int numPages, Supplier<? extends ReplacementPolicy> policy) {
+        this(numPages, 0, policy, null);
+    }
+
+    private BufferPool(int numPages, long capacityBytes, Supplier<? extends ReplacementPolicy> policy,
+            FrameArena arena) {
         // some code goes here
-        this.lruCache = new LRUCache(numPages);
+        this.arena = arena;
+        this.retiredPages = new ConcurrentLinkedQueue<HeapPage>();
+        this.stats = new BufferPoolStats();
+        this.pinnedFrames = new ConcurrentHashMap<>();
+        this.versions = new VersionStore();
+        this.pageTable = new PageTable(numPages, capacityBytes, policy, arena == null ? null : this::retire, this);
         this.lockManager = new LockManager();
-        this.transactionIdPageId = new ConcurrentHashMap<>();
+        this.writeSets = new ConcurrentHashMap<>();
+        this.readAhead = new ReadAhead(this);
+        this.pageCleaner = new PageCleaner(this);
+        this.appendedPages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a BufferPool that caches pages within a budget of the
+     * specified number of bytes. Each cached page takes the page size of its
+     * table.
+     *
+     * @param capacityBytes maximum number of bytes of pages in this buffer pool.
+     * @see Catalog#getPageSize
+     */
+    public static BufferPool withCapacityBytes(long capacityBytes) {
+        return withCapacityBytes(capacityBytes, Policy.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches pages within a budget of the
+     * specified number of bytes and evicts them with the specified
+     * replacement policy.
+     *
+     * @param capacityBytes maximum number of bytes of pages in this buffer pool.
+     * @param policy creates the replacement policy of each shard of the pool
+     */
+    public static BufferPool withCapacityBytes(long capacityBytes, Supplier<? extends ReplacementPolicy> policy) {
+        if (capacityBytes <= 0)
+            throw new IllegalArgumentException("buffer pool budget must be positive: " + capacityBytes);
+        return new BufferPool(0, capacityBytes, policy, null);
+    }
+
+    /**
+     * Creates a BufferPool that caches pages within a budget of the
+     * specified number of bytes, keeping the pages of the default page size
+     * in frames of a {@link FrameArena} allocated outside of the Java heap.
+     *
+     * @param capacityBytes maximum number of bytes of pages in this buffer pool.
+     * @see #offHeap(long, Supplier)
+     */
+    public static BufferPool offHeap(long capacityBytes) {
+        return offHeap(capacityBytes, Policy.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches pages within a budget of the
+     * specified number of bytes and evicts them with the specified
+     * replacement policy, keeping the pages of the default page size in
+     * frames of a {@link FrameArena} allocated outside of the Java heap.
+     * <p>
+     * The arena has one frame per page of the budget and is allocated once,
+     * here. Pages of files that read into frames (see
+     * {@link DbFile#readPage(PageId, FrameArena)}) keep their bytes in a
+     * frame while cached; the frame of a page that leaves the pool is
+     * reclaimed once no transaction holds a lock on the page, and its bytes
+     * are then copied onto the heap for whoever still refers to the page.
+     * Pages that find no free frame, and pages of other sizes, are kept on
+     * the heap as usual.
+     *
+     * @param capacityBytes maximum number of bytes of pages in this buffer pool.
+     * @param policy creates the replacement policy of each shard of the pool
+     */
+    public static BufferPool offHeap(long capacityBytes, Supplier<? extends ReplacementPolicy> policy) {
+        if (capacityBytes <= 0)
+            throw new IllegalArgumentException("buffer pool budget must be positive: " + capacityBytes);
+        return new BufferPool(0, capacityBytes, policy, new FrameArena(capacityBytes, getPageSize()));
+    }
+
+    /**
+     * @return the maximum number of pages of the default page size this
+     *         buffer pool caches.
+     */
+    public int getCapacity() {
+        return (int) Math.min(Integer.MAX_VALUE, getCapacityBytes() / getPageSize());
+    }
+
+    /**
+     * @return the maximum number of bytes of pages this buffer pool caches.
+     */
+    public long getCapacityBytes() {
+        return this.pageTable.getMaxBytes();
+    }
+
+    /**
+     * Changes the capacity of this buffer pool to numPages pages of the
+     * default page size while it is in use. Growing takes effect at once.
+     * Shrinking evicts clean pages in batches of {@link #RESIZE_BATCH},
+     * letting other requests in between; under STEAL dirty pages are
+     * written back (logged first) and evicted too. Otherwise dirty pages
+     * stay until their transaction completes, and the pool is back within
+     * its capacity once those transactions are over.
+     *
+     * @param numPages the new maximum number of pages
+     * @return true if the cached pages already fit the new capacity
+     */
+    public boolean resize(int numPages) throws DbException {
+        if (numPages <= 0)
+            throw new IllegalArgumentException("buffer pool capacity must be positive: " + numPages);
+        this.pageTable.setBudget(numPages, 0);
+        return shrinkToCapacity();
+    }
+
+    /**
+     * Changes the capacity of this buffer pool to a number of bytes of
+     * pages while it is in use, like {@link #resize(int)}.
+     *
+     * @param capacityBytes the new maximum number of bytes of pages
+     * @return true if the cached pages already fit the new capacity
+     */
+    public boolean resizeBytes(long capacityBytes) throws DbException {
+        if (capacityBytes < getPageSize())
+            throw new IllegalArgumentException("buffer pool of " + capacityBytes + " bytes cannot hold a page");
+        this.pageTable.setBudget(0, capacityBytes);
+        return shrinkToCapacity();
+    }
+
+    private boolean shrinkToCapacity() throws DbException {
+        while (this.pageTable.shrink(RESIZE_BATCH) == RESIZE_BATCH)
+            Thread.yield();
+        return getUsedBytes() <= getCapacityBytes();
+    }
+
+    /**
+     * @return the number of bytes taken by the pages currently cached.
+     */
+    public long getUsedBytes() {
+        return this.pageTable.getUsedBytes();
+    }
+
+    /**
+     * @return the arena holding the page frames of this buffer pool, or null
+     *         if its pages live on the heap.
+     * @see #offHeap(long)
+     */
+    public FrameArena getFrameArena() {
+        return this.arena;
+    }
+
+    /**
+     * @return the sequential read-ahead engine of this buffer pool.
+     */
+    public ReadAhead getReadAhead() {
+        return this.readAhead;
+    }
+
+    /**
+     * @return the background writer of dirty pages of this buffer pool; it
+     *         is not running until started.
+     */
+    public PageCleaner getPageCleaner() {
+        return this.pageCleaner;
+    }
+
+    /**
+     * @return true if dirty pages of running transactions may be written to
+     *         disk to make room in the buffer pool (STEAL).
+     */
+    public boolean isSteal() {
+        return this.pageTable.steal;
+    }
+
+    /**
+     * Chooses between NO STEAL, the default, and STEAL. Under NO STEAL dirty
+     * pages stay in the buffer pool until commit, and a transaction fails
+     * once every page of the pool is dirty. Under STEAL a dirty page may be
+     * written back before its transaction commits, once its update record
+     * is forced to the log, and the {@link PageCleaner} may write back dirty
+     * pages ahead of eviction; if the transaction aborts, its changes are
+     * undone from the log. {@link LogFile#recover} does not undo them after
+     * a crash yet, so STEAL is only safe where crashes need not be survived.
+     */
+    public void setSteal(boolean steal) {
+        this.pageTable.steal = steal;
+    }
+
+    /**
+     * @return how the lock manager of this pool handles deadlocks
+     */
+    public LockManager.DeadlockPolicy getDeadlockPolicy() {
+        return this.lockManager.getDeadlockPolicy();
+    }
+
+    /**
+     * Chooses how deadlocks between the transactions of this pool are
+     * detected or prevented; see {@link LockManager.DeadlockPolicy}.
+     */
+    public void setDeadlockPolicy(LockManager.DeadlockPolicy policy) {
+        this.lockManager.setDeadlockPolicy(policy);
+    }
+
+    /**
+     * Sets how long a transaction waits for a lock before aborting under
+     * {@link LockManager.DeadlockPolicy#TIMEOUT}, in ms.
+     */
+    public void setLockTimeout(long millis) {
+        this.lockManager.setLockTimeout(millis);
+    }
+
+    /**
+     * Sets the number of page and tuple locks a transaction may hold on one
+     * table before they are escalated to a table lock.
+     */
+    public void setLockEscalationThreshold(int locks) {
+        this.lockManager.setEscalationThreshold(locks);
+    }
+
+    /**
+     * Writes back up to max dirty pages that are close to eviction, logging
+     * them first, if the pool runs under STEAL. Used by the {@link PageCleaner}.
+     *
+     * @return the number of pages written
+     */
+    int writeBackColdPages(int max) throws IOException {
+        if (!isSteal())
+            return 0;
+        return this.pageTable.writeBackColdPages(max);
+    }
+
+    /**
+     * @return the hit, miss, eviction and I/O counters of this pool
+     */
+    public BufferPoolStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * @return the versions of pages kept for snapshot transactions
+     */
+    public VersionStore getVersionStore() {
+        return this.versions;
+    }
+
+    /**
+     * Makes a transaction a read-only snapshot transaction: from now on it
+     * reads the pages as they were committed when this is called, without
+     * taking any locks, until it completes. Must be called before the
+     * transaction requests its first page.
+     *
+     * @param tid the ID of the read-only transaction
+     */
+    public void beginSnapshot(TransactionId tid) {
+        this.versions.begin(tid);
+    }
+
+    /**
+     * Reads a page for a snapshot transaction.
+     */
+    private Page getSnapshotPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        if (perm.equals(Permissions.READ_WRITE))
+            throw new DbException("snapshot transaction " + tid.getId() + " is read-only");
+        return this.versions.read(tid, pid, this::readCommitted);
+    }
+
+    /**
+     * Reads the last committed image of a page: the before image of the
+     * cached heap page, copied under its shared latch since heap file
+     * writers change it under the exclusive one, or else the page on disk,
+     * which under NO STEAL has no uncommitted changes.
+     */
+    private Page readCommitted(PageId pid) {
+        Frame f = this.arena == null ? this.pageTable.getFrame(pid) : null;
+        if (f != null && f.page instanceof HeapPage) {
+            f.latchShared();
+            try {
+                return f.page.getBeforeImage();
+            } finally {
+                f.unlatchShared();
+            }
+        }
+        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        // a page over the file mapping would see later commits written back,
+        // so the snapshot keeps a copy of its own
+        return p instanceof HeapPage ? p.getBeforeImage() : p;
+    }
+
+    /**
+     * @return true if a version of the specified page is currently cached.
+     */
+    public boolean isResident(PageId pid) {
+        return this.pageTable.contains(pid);
+    }
+
+    /**
+     * @return the ids of the pages currently cached, in no particular order
+     */
+    public List<PageId> getResidentPageIds() {
+        return this.pageTable.getPageIds();
+    }
+
+    /**
+     * Reads the specified page into the buffer pool ahead of its use, on
+     * behalf of a transaction that is scanning it. A shared lock is taken for
+     * the transaction only if it can be granted immediately, since the
+     * transaction would take that lock anyway once its scan got there; a page
+     * that is already cached, or whose lock is not available, is skipped.
+     * Used by {@link ReadAhead}.
+     *
+     * @param tid the scanning transaction
+     * @param pid the page to read
+     * @param ring the ring of the scan, or null
+     * @return true if the page was read and added to the buffer pool
+     */
+    boolean prefetchPage(TransactionId tid, PageId pid, BufferRing ring) {
+        if (this.pageTable.contains(pid))
+            return false;
+        // snapshot transactions take no locks, and read uncached pages themselves
+        if (this.versions.isSnapshot(tid))
+            return false;
+        // the scan locks the tuples it reads, so IS is all the page needs
+        if (!this.lockManager.tryLock(tid, pid, LockMode.IS))
+            return false;
+        Page page = null;
+        try {
+            page = readPage(pid);
+            this.stats.prefetched(pid, Database.getCatalog().getPageSize(pid.getTableId()));
+            if (this.pageTable.putIfAbsent(pid, page, ring))
+                return true;
+            retire(page);
+            return false;
+        } catch (Exception e) {
+            retire(page);
+            // e.g. every frame is dirty; the scan will read the page itself
+            return false;
+        }
     }
 
     public static int getPageSize() {
@@ -229,47 +1343,205 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions on behalf
+     * of a scan reading through the specified ring of frames. If the page is
+     * not cached, it is read into the ring, which drops the oldest page of
+     * the ring from the buffer pool once it is full, so the scan does not
+     * evict the pages of other transactions.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, or null to cache the page normally
+     * @see BufferRing
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
         //System.out.println(tid.toString() + " " + pid.toString() + " " + perm.toString() + "\n");
+        if (this.versions.isSnapshot(tid))
+            return getSnapshotPage(tid, pid, perm);
         lockManager.lock(tid, pid, perm);
-        synchronized (this.transactionIdPageId) {
-            this.transactionIdPageId.putIfAbsent(tid, new HashMap<PageId, Permissions>());
-            HashMap<PageId, Permissions> rwRecord = this.transactionIdPageId.get(tid);
-            Permissions res = rwRecord.get(pid);
-            if (res == null) res = perm;
-            else if(res.equals(Permissions.READ_ONLY) && perm.equals(Permissions.READ_WRITE)) res = perm;
-            rwRecord.put(pid, res);
-        }
-        Page page;
-        if(this.lruCache.contains(pid)){
-            //System.out.println("Buffer Pool hit " + pid.toString());
-            page = lruCache.get(pid);
-            if(page == null){
-                int tableId = pid.getTableId();
-                page = Database.getCatalog().getDatabaseFile(tableId).readPage(pid);
-                try {
-                    lruCache.put(pid, page);
-                }catch (Exception e){
-                    throw new DbException("fail to put to cache:" + e.toString());
-                }
-            }
-//            if (perm == Permissions.READ_WRITE)
-//                page.markDirty(true, tid);
+        return cachedPage(tid, pid, perm, ring);
+    }
+
+    /**
+     * Looks the page up in the buffer pool, reading it in if it is not
+     * cached, for a transaction that holds the locks it needs.
+     */
+    private Page cachedPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws DbException {
+        if (perm == Permissions.READ_WRITE)
+            this.writeSets.computeIfAbsent(tid, k -> ConcurrentHashMap.<PageId>newKeySet()).add(pid);
+        Page page = this.pageTable.get(pid, ring);
+        if(page != null) {
+            this.stats.hit(pid);
             return page;
         }
-        else{
-            //System.out.println("Buffer Pool not hit " + pid.toString());
-            int tableId = pid.getTableId();
-            page = Database.getCatalog().getDatabaseFile(tableId).readPage(pid);
-            try {
-                lruCache.put(pid, page);
-            }catch (Exception e){
-                throw new DbException("fail to put to cache:" + e.toString());
+        long start = System.nanoTime();
+        page = readPage(pid);
+        this.stats.miss(pid, Database.getCatalog().getPageSize(pid.getTableId()), System.nanoTime() - start);
+        try {
+            if(!this.pageTable.putIfAbsent(pid, page, ring)) {
+                // another reader cached the page first
+                retire(page);
+                Page cached = this.pageTable.get(pid, ring);
+                if(cached != null)
+                    page = cached;
             }
-//            if (perm == Permissions.READ_WRITE)
-//                page.markDirty(true, tid);
-            return page;
+        }catch (Exception e){
+            retire(page);
+            throw new DbException("fail to put to cache:" + e.toString());
+        }
+        return page;
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage} and pins its frame,
+     * so the page is not evicted until it is unpinned, e.g. while a scan
+     * reads it. Pins are separate from the transaction's locks; the frame
+     * also carries a short-term latch to take around a change of the page
+     * made in place. Pins left by a transaction are released when it
+     * completes.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, or null to cache the page normally
+     * @return the pinned frame; its page is the one getPage returns
+     * @see #unpinPage
+     */
+    public Frame pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return pin(tid, pid, perm, ring, false);
+    }
+
+    public Frame pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Pins the specified page like {@link #pinPage}, but locks it only IS
+     * for READ_ONLY and SIX for READ_WRITE, for a transaction that locks the
+     * tuples it reads or writes on the page with {@link #lockTuple}. Other
+     * transactions may then read or write other tuples of the page, so the
+     * page may be dropped from the pool (e.g. when a writer of it aborts)
+     * while the transaction waits for a tuple lock; see {@link #isCurrent}.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the tuples of the page
+     * @param ring the ring of the scan, or null to cache the page normally
+     * @return the pinned frame
+     */
+    public Frame pinPageForTuples(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return pin(tid, pid, perm, ring, true);
+    }
+
+    /**
+     * @return true if the frame pinned by the transaction still holds the
+     *         specified page as the cached version of it
+     */
+    public boolean isCurrent(TransactionId tid, Frame f, Page page) {
+        if (this.versions.isSnapshot(tid))
+            return true;
+        return f.page == page && this.pageTable.getFrame(f.pid) == f;
+    }
+
+    private Frame pin(TransactionId tid, PageId pid, Permissions perm, BufferRing ring, boolean tuples)
+        throws TransactionAbortedException, DbException {
+        if (this.versions.isSnapshot(tid)) {
+            // a private version, which no one else changes or evicts
+            return new Frame(pid, getSnapshotPage(tid, pid, perm), 0);
+        }
+        while (true) {
+            if (tuples) {
+                this.lockManager.lockPageForTuples(tid, pid, perm);
+                cachedPage(tid, pid, perm, ring);
+            } else
+                getPage(tid, pid, perm, ring);
+            Frame f = this.pageTable.pin(pid, ring);
+            if (f != null) {
+                ArrayList<Frame> pinned = this.pinnedFrames.computeIfAbsent(tid, k -> new ArrayList<Frame>());
+                synchronized (pinned) {
+                    pinned.add(f);
+                }
+                return f;
+            }
+            // evicted again before it could be pinned
+        }
+    }
+
+    /**
+     * Releases a pin taken by {@link #pinPage}.
+     *
+     * @param tid the transaction that pinned the frame
+     * @param f the pinned frame
+     */
+    public void unpinPage(TransactionId tid, Frame f) {
+        ArrayList<Frame> pinned = this.pinnedFrames.get(tid);
+        if (pinned == null)
+            return;
+        synchronized (pinned) {
+            if (!pinned.remove(f))
+                return;
+        }
+        if (f.pins.decrementAndGet() == 0)
+            this.pageTable.unpinned();
+    }
+
+    private void unpinAll(TransactionId tid) {
+        ArrayList<Frame> pinned = this.pinnedFrames.remove(tid);
+        if (pinned == null)
+            return;
+        synchronized (pinned) {
+            for (Frame f : pinned)
+                if (f.pins.decrementAndGet() == 0)
+                    this.pageTable.unpinned();
+            pinned.clear();
+        }
+    }
+
+    /**
+     * Reads a page from its file, into a frame of the arena if this pool has
+     * one.
+     */
+    private Page readPage(PageId pid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (this.arena == null)
+            return file.readPage(pid);
+        if (this.arena.getFreeFrames() == 0)
+            reclaimFrames();
+        return file.readPage(pid, this.arena);
+    }
+
+    /**
+     * Records that a page is no longer cached, or was never cached. If it
+     * holds an arena frame, the frame is reclaimed by {@link #reclaimFrames}
+     * once nobody can be using it.
+     */
+    private void retire(Page page) {
+        if (page instanceof HeapPage && ((HeapPage) page).hasFrame())
+            this.retiredPages.add((HeapPage) page);
+    }
+
+    /**
+     * Gives the frames of retired pages that no transaction holds a lock on
+     * back to the arena. Transactions only use a page while they hold a
+     * lock on it, so these pages are only referenced by tuples handed out
+     * earlier, which releaseFrame detaches.
+     */
+    private void reclaimFrames() {
+        for (HeapPage page : this.retiredPages) {
+            if (!this.lockManager.isLocked(page.getId()) && this.retiredPages.remove(page))
+                this.arena.free(page.releaseFrame());
         }
     }
 
@@ -299,6 +1571,44 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * Locks a whole table for a transaction that reads or writes most of
+     * it, so it does so without locking each page or tuple. May
+     * block if another transaction holds a conflicting lock on the table
+     * or on some of its pages.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (this.versions.isSnapshot(tid))
+            return;
+        this.lockManager.lockTable(tid, tableId, perm);
+    }
+
+    /**
+     * Locks one tuple for a transaction, and its page and table in the
+     * matching intention mode (SIX for the page of a tuple written).
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the tuple to lock
+     * @param perm the requested permissions on the tuple
+     * @see #pinPageForTuples
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (this.versions.isSnapshot(tid))
+            return;
+        this.lockManager.lockTuple(tid, rid, perm);
+    }
+
+    /** Return true if the specified transaction has a lock on the specified tuple */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return lockManager.holdsLock(tid, rid);
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -317,18 +1627,48 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        this.readAhead.transactionComplete(tid);
+        unpinAll(tid);
+        ArrayList<Page> appended = this.appendedPages.remove(tid);
+        LogFile log = Database.getLogFile();
         if(commit) {
             flushPages(tid);
+            // pages written back early logged updates that need an outcome
+            if(log.isActive(tid))
+                log.logCommit(tid);
         }
         else{
             try {
                 //System.out.println("discard!");
-                discardPages(tid);
+                synchronized (this) {
+                    // undo pages written back early before rereading them
+                    if(log.isActive(tid))
+                        log.logAbort(tid);
+                    discardPages(tid);
+                }
             }catch (Exception e){
                 System.out.println("We assume that there is no crash during transactionComplete " + e.toString());
             }
+            if (appended != null) {
+                // wipe pages the transaction appended directly to disk
+                for (Page p : appended) {
+                    discardPage(p.getId());
+                    Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+                }
+            }
         }
         this.lockManager.transactionFinished(tid);
+        this.versions.end(tid);
+        if(getUsedBytes() > getCapacityBytes()) {
+            // the pool shrank while the transaction kept its pages dirty
+            try {
+                shrinkToCapacity();
+            }catch (DbException e){
+                throw new IOException("could not shrink the buffer pool: " + e.getMessage());
+            }
+        }
+        if(this.arena != null)
+            reclaimFrames();
     }
 
     /**
@@ -354,7 +1694,7 @@ public class BufferPool {
         ArrayList<Page> dirtyPages = f.insertTuple(tid, t);
         for(Page p : dirtyPages) {
             p.markDirty(true, tid);
-            lruCache.put(p.getId(), p);
+            pageTable.put(p.getId(), p);
         }
     }
 
@@ -381,7 +1721,32 @@ public class BufferPool {
         ArrayList<Page> dirtyPages = table.deleteTuple(tid, t);
         for(Page p : dirtyPages) {
             p.markDirty(true, tid);
-            lruCache.put(p.getId(), p);
+            pageTable.put(p.getId(), p);
+        }
+    }
+
+    /**
+     * Takes exclusive locks for a transaction on pages it is about to append
+     * to their file directly, bypassing the cache (see HeapFile#bulkLoad).
+     * The pages are written by the caller, so commit has nothing to flush for
+     * them; if the transaction aborts, the given before images are written
+     * back over the appended pages. Like pages written back early under
+     * STEAL, the before images are kept as the committed images of the pages
+     * until the transaction ends, and saved as versions when it commits, so
+     * snapshots do not see the appended tuples.
+     *
+     * @param tid the transaction appending the pages
+     * @param beforeImages the contents of the pages before the append
+     */
+    public void lockAppendedPages(TransactionId tid, ArrayList<Page> beforeImages)
+        throws DbException, TransactionAbortedException {
+        for (Page p : beforeImages) {
+            lockManager.lock(tid, p.getId(), Permissions.READ_WRITE);
+            discardPage(p.getId());
+            this.versions.stolen(p.getId(), p);
+            this.writeSets.computeIfAbsent(tid, k -> ConcurrentHashMap.<PageId>newKeySet()).add(p.getId());
+            // added as locked: an abort while locking the rest still writes it
+            this.appendedPages.computeIfAbsent(tid, k -> new ArrayList<Page>()).add(p);
         }
     }
 
@@ -393,7 +1758,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        this.lruCache.flushAll();
+        this.pageTable.flushAll();
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -407,7 +1772,7 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        this.lruCache.remove(pid);
+        this.pageTable.remove(pid);
     }
 
     /**
@@ -417,61 +1782,115 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page p = this.lruCache.get(pid);
-        if(p != null && p.isDirty() != null) {
+        Frame f = this.pageTable.getFrame(pid);
+        if(f != null && f.page.isDirty() != null) {
             //System.out.println("flush page " + pid.hashCode() + " to disk");
+            writeLatched(f);
+        }
+    }
+
+    /**
+     * Writes the page of a frame to disk under its shared latch, marks it
+     * clean and takes its new before image.
+     */
+    private void writeLatched(Frame f) throws IOException {
+        f.latchShared();
+        try {
+            Page p = f.page;
             p.markDirty(false, null);
-            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+            Database.getCatalog().getDatabaseFile(f.pid.getTableId()).writePage(p);
+            this.stats.flushed(f.pid, f.size);
             p.setBeforeImage();
+        } finally {
+            f.unlatchShared();
         }
     }
 
+    /**
+     * Removes the write set of a transaction.
+     * @return its pages sorted by file and page number, or null if it has none
+     */
+    private List<PageId> takeWriteSet(TransactionId tid) {
+        Set<PageId> writeSet = this.writeSets.remove(tid);
+        if (writeSet == null)
+            return null;
+        ArrayList<PageId> pageIds = new ArrayList<PageId>(writeSet);
+        pageIds.sort(FILE_ORDER);
+        return pageIds;
+    }
+
     /** Write all pages of the specified transaction to disk.
+     * Pages are written in file and page order, so each file is written
+     * sequentially. Only the pages of the transaction are involved, all
+     * locked by it, so the pool itself is not locked and other transactions
+     * keep requesting pages meanwhile. While snapshots are active, the
+     * versions the pages replace are saved for them first.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        if(!this.transactionIdPageId.containsKey(tid))
+        List<PageId> pageIds = takeWriteSet(tid);
+        if (pageIds == null)
             return;
-        synchronized (this.transactionIdPageId) {
-            HashMap<PageId, Permissions> pageIds = this.transactionIdPageId.get(tid);
-            for (PageId pageId : pageIds.keySet()) {
-                if (pageIds.get(pageId).equals(Permissions.READ_WRITE)) {
-                    //if(this.lruCache.contains(pageId))
-                    Page p = this.lruCache.get(pageId);
-                    if (p != null) {
-                        //System.out.println("flush page " + pid.hashCode() + " to disk");
-                        p.markDirty(false, null);
-                        Database.getCatalog().getDatabaseFile(pageId.getTableId()).writePage(p);
-                        p.setBeforeImage();
-                    }
-                }
+        long commit = this.versions.beginCommit();
+        try {
+            for (PageId pageId : pageIds) {
+                Frame f = this.pageTable.getFrame(pageId);
+                Page committed = this.versions.takeStolen(pageId);
+                if (committed == null && f != null && f.page.isDirty() != null)
+                    committed = f.page.getBeforeImage();
+                if (commit != 0 && committed != null)
+                    this.versions.save(pageId, committed, commit);
+                if (f != null)
+                    writeLatched(f);
             }
-            this.transactionIdPageId.remove(tid);
+        } finally {
+            this.versions.endCommit(commit);
         }
     }
 
-    public synchronized void discardPages(TransactionId tid) throws IOException, DbException{
-        if(!this.transactionIdPageId.containsKey(tid)) {
-            //System.out.println(tid.hashCode() + " not exist!");
+    /**
+     * Drops the pages of the specified transaction from the buffer pool, so
+     * their next request reads them from disk.
+     */
+    public void discardPages(TransactionId tid) throws IOException, DbException{
+        List<PageId> pageIds = takeWriteSet(tid);
+        if (pageIds == null)
             return;
+        for (PageId pageId : pageIds) {
+            Frame f = this.pageTable.getFrame(pageId);
+            Page before = this.versions.takeStolen(pageId);
+            if (before == null && f != null && f.page.isDirty() != null)
+                before = f.page.getBeforeImage();
+            // dropped rather than reread: caching the old version could
+            // write back another page of the transaction under STEAL
+            this.pageTable.remove(pageId);
+            // the free-space map still describes the aborted changes
+            if (before != null)
+                updateFreeSpace(before);
         }
-        synchronized (this.transactionIdPageId) {
-            HashMap<PageId, Permissions> pageIds = this.transactionIdPageId.get(tid);
-            //System.out.println(tid.hashCode() + " page set size " + pageIds.size());
-            for (PageId pageId : pageIds.keySet()) {
-//            if(this.lruCache.contains(pageId) && this.lruCache.get(pageId).isDirty() != null) {
-//                //System.out.println("read old " + pageId.hashCode() + "!");
-//                Page oldPage = Database.getCatalog().getDatabaseFile(pageId.getTableId()).readPage(pageId);
-//                this.lruCache.put(pageId, oldPage);
-//            }
-                if (pageIds.get(pageId).equals(Permissions.READ_WRITE)) {
-                    Page oldPage = Database.getCatalog().getDatabaseFile(pageId.getTableId()).readPage(pageId);
-                    this.lruCache.put(pageId, oldPage);
-                }
-            }
-            this.transactionIdPageId.remove(tid);
-        }
+    }
+
+    /**
+     * Records the free space of a page restored by an abort in the
+     * free-space map of its file, if the file keeps one.
+     */
+    private static void updateFreeSpace(Page page) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        FreeSpaceMap fsm;
+        if (file instanceof HeapFile && page instanceof HeapPage) {
+            fsm = ((HeapFile) file).getFreeSpaceMap();
+            fsm.update((HeapPage) page);
+        } else if (file instanceof SlottedHeapFile && page instanceof SlottedPage) {
+            fsm = ((SlottedHeapFile) file).getFreeSpaceMap();
+            fsm.update((SlottedPage) page);
+        } else if (file instanceof PaxFile && page instanceof PaxPage) {
+            PaxPage paxPage = (PaxPage) page;
+            fsm = ((PaxFile) file).getFreeSpaceMap();
+            fsm.update(page.getId().pageNumber(), paxPage.getNumEmptySlots(), paxPage.getNumSlots());
+        } else
+            return;
+        fsm.persist(page.getId().pageNumber());
     }
 
     /**
@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPoolDump saves the ids of the pages cached by a BufferPool to a file
+ * and reads them back into a new buffer pool, so a restarted database starts
+ * with the working set it had instead of reloading it one random read at a
+ * time.
+ * <p>
+ * The dump is a text file with a line per page: the class of its id followed
+ * by the serialized id (see {@link PageId#serialize}), the way the log stores
+ * page ids. {@link LogFile#logCheckpoint} dumps the pool next to the log on
+ * every checkpoint, and so on shutdown. A {@link Loader} reads the pages back
+ * in the background, sorted by table and page number so the files are read
+ * sequentially, while queries are being served: pages are read through
+ * {@link BufferPool#prefetchPage} under a shared lock held only while the
+ * page is read, and loading stops once the pool is full, so it never evicts
+ * pages that queries brought in.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolDump {
+
+    /** Appended to the name of the log file to name the dump. */
+    public static final String SUFFIX = ".pages";
+
+    private BufferPoolDump() {
+    }
+
+    /**
+     * @return the dump that goes with the specified log file
+     */
+    public static File fileFor(File logFile) {
+        return new File(logFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Writes the ids of the pages cached by a buffer pool to a file. The file
+     * is replaced at once, so a crash while dumping leaves the previous dump.
+     *
+     * @return the number of page ids written
+     */
+    public static int dump(BufferPool bufferPool, File f) throws IOException {
+        List<PageId> ids = bufferPool.getResidentPageIds();
+        File tmp = new File(f.getPath() + ".tmp");
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+            for (PageId pid : ids) {
+                out.print(pid.getClass().getName());
+                for (int v : pid.serialize()) {
+                    out.print(' ');
+                    out.print(v);
+                }
+                out.println();
+            }
+            if (out.checkError())
+                throw new IOException("could not write " + tmp);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return ids.size();
+    }
+
+    /**
+     * Reads the page ids of a dump, skipping lines it cannot parse.
+     *
+     * @return the page ids sorted by table and page number
+     */
+    public static List<PageId> read(File f) throws IOException {
+        ArrayList<PageId> ids = new ArrayList<PageId>();
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                PageId pid = parse(line.trim());
+                if (pid != null)
+                    ids.add(pid);
+            }
+        }
+        ids.sort(BufferPool.FILE_ORDER);
+        return ids;
+    }
+
+    private static PageId parse(String line) {
+        if (line.isEmpty())
+            return null;
+        String[] fields = line.split("\\s+");
+        try {
+            Class<?> idClass = Class.forName(fields[0]);
+            if (!PageId.class.isAssignableFrom(idClass))
+                return null;
+            Object[] args = new Object[fields.length - 1];
+            for (int i = 0; i < args.length; i++)
+                args[i] = Integer.parseInt(fields[i + 1]);
+            for (Constructor<?> c : idClass.getConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                boolean ints = params.length == args.length;
+                for (int i = 0; ints && i < params.length; i++)
+                    ints = params[i] == int.class;
+                if (ints)
+                    return (PageId) c.newInstance(args);
+            }
+        } catch (Exception e) {
+            // not a page id of this version of the database
+        }
+        return null;
+    }
+
+    /**
+     * Starts loading the pages of a dump into a buffer pool in the background.
+     *
+     * @return the running loader, or null if there is no dump
+     */
+    public static Loader load(BufferPool bufferPool, File f) throws IOException {
+        if (!f.exists())
+            return null;
+        Loader loader = new Loader(bufferPool, read(f));
+        loader.start();
+        return loader;
+    }
+
+    /**
+     * Reads a list of pages into a buffer pool in a daemon thread, until
+     * every page is cached or the pool is full. Pages of tables that are no
+     * longer in the catalog, or past the end of their file, are skipped.
+     */
+    public static class Loader {
+        private final BufferPool bufferPool;
+        private final List<PageId> pages;
+        private final AtomicInteger loaded;
+        private Thread thread;
+
+        /**
+         * @param pages the pages to load, in the order they are read
+         */
+        public Loader(BufferPool bufferPool, List<PageId> pages) {
+            this.bufferPool = bufferPool;
+            this.pages = pages;
+            this.loaded = new AtomicInteger(0);
+        }
+
+        /** Starts the background thread, unless it was started before. */
+        public synchronized void start() {
+            if (thread != null)
+                return;
+            thread = new Thread(this::run, "simpledb-buffer-pool-loader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /** Waits until loading is over. */
+        public void join() throws InterruptedException {
+            Thread t;
+            synchronized (this) {
+                t = thread;
+            }
+            if (t != null)
+                t.join();
+        }
+
+        /** @return the number of pages in the list */
+        public int getPageCount() {
+            return pages.size();
+        }
+
+        /** @return the number of pages read into the buffer pool so far */
+        public int getLoadedCount() {
+            return loaded.get();
+        }
+
+        /** Loads the pages in the calling thread. */
+        void run() {
+            TransactionId tid = new TransactionId();
+            Catalog catalog = Database.getCatalog();
+            int table = 0;
+            DbFile file = null;
+            try {
+                for (PageId pid : pages) {
+                    if (file == null || pid.getTableId() != table) {
+                        table = pid.getTableId();
+                        try {
+                            file = catalog.getDatabaseFile(table);
+                        } catch (NoSuchElementException e) {
+                            file = null;
+                            continue;
+                        }
+                    }
+                    if (file == null || !exists(file, pid))
+                        continue;
+                    if (bufferPool.getUsedBytes() + file.getPageSize() > bufferPool.getCapacityBytes())
+                        break;
+                    if (bufferPool.prefetchPage(tid, pid, null))
+                        loaded.incrementAndGet();
+                    bufferPool.releasePage(tid, pid);
+                }
+            } finally {
+                try {
+                    bufferPool.transactionComplete(tid);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "BufferPoolDump.Loader(" + getLoadedCount() + "/" + getPageCount() + ")";
+        }
+    }
+
+    /**
+     * @return true if the page is a page of the specified file
+     */
+    private static boolean exists(DbFile file, PageId pid) {
+        int numPages = file.numPages();
+        if (file instanceof BTreeFile) {
+            if (!(pid instanceof BTreePageId))
+                return false;
+            if (((BTreePageId) pid).pgcateg() == BTreePageId.ROOT_PTR)
+                return pid.pageNumber() == 0;
+            return pid.pageNumber() >= 1 && pid.pageNumber() <= numPages;
+        }
+        return pid instanceof HeapPageId && pid.pageNumber() >= 0 && pid.pageNumber() < numPages;
+    }
+}
@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolStats counts what a BufferPool does: hits, misses, evictions,
+ * dirty evictions, flushes, the bytes read and written and the time spent
+ * reading missed pages. Counters are kept per table and per category of
+ * page, so the hit ratio of a B+ tree's internal pages can be told apart
+ * from that of its leaves or of a heap file.
+ * <p>
+ * Counters are LongAdders, which spread concurrent increments over several
+ * cells instead of contending on one word, so counting costs the hot path of
+ * {@link BufferPool#getPage} next to nothing; reads sum the cells and are
+ * only approximately consistent while pages are being requested.
+ *
+ * @see BufferPool#getStats()
+ * @Threadsafe
+ */
+public class BufferPoolStats {
+
+    /** The kind of a cached page. */
+    public enum Category {
+        HEAP, BTREE_ROOT_PTR, BTREE_INTERNAL, BTREE_LEAF, BTREE_HEADER;
+
+        /**
+         * @return the category of the page with the specified id
+         */
+        public static Category of(PageId pid) {
+            if (!(pid instanceof BTreePageId))
+                return HEAP;
+            switch (((BTreePageId) pid).pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return BTREE_ROOT_PTR;
+            case BTreePageId.INTERNAL:
+                return BTREE_INTERNAL;
+            case BTreePageId.LEAF:
+                return BTREE_LEAF;
+            default:
+                return BTREE_HEADER;
+            }
+        }
+    }
+
+    /** The counters of one table and category, or sums of them. */
+    public static class Counters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder dirtyEvictions = new LongAdder();
+        private final LongAdder flushes = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder missNanos = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /** @return the number of pages dropped to make room for others */
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        /** @return the number of dirty pages written back to make room (STEAL) */
+        public long getDirtyEvictions() {
+            return dirtyEvictions.sum();
+        }
+
+        /** @return the number of pages written back on commit or flush */
+        public long getFlushes() {
+            return flushes.sum();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        /** @return hits / (hits + misses), or 0 if no page was requested */
+        public double getHitRatio() {
+            long h = getHits(), requests = h + getMisses();
+            return requests == 0 ? 0 : (double) h / requests;
+        }
+
+        /** @return the average time to read a missed page, in microseconds */
+        public double getAvgMissLatencyMicros() {
+            long m = getMisses();
+            return m == 0 ? 0 : missNanos.sum() / 1000.0 / m;
+        }
+
+        private void add(Counters c) {
+            hits.add(c.getHits());
+            misses.add(c.getMisses());
+            evictions.add(c.getEvictions());
+            dirtyEvictions.add(c.getDirtyEvictions());
+            flushes.add(c.getFlushes());
+            bytesRead.add(c.getBytesRead());
+            bytesWritten.add(c.getBytesWritten());
+            missNanos.add(c.missNanos.sum());
+        }
+
+        private boolean isEmpty() {
+            return getHits() + getMisses() + getEvictions() + getDirtyEvictions() + getFlushes()
+                    + getBytesRead() + getBytesWritten() == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hit%%=%.1f evictions=%d dirty=%d flushes=%d"
+                    + " read=%dB written=%dB miss=%.1fus", getHits(), getMisses(), 100 * getHitRatio(),
+                    getEvictions(), getDirtyEvictions(), getFlushes(), getBytesRead(), getBytesWritten(),
+                    getAvgMissLatencyMicros());
+        }
+    }
+
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final ConcurrentHashMap<Integer, Counters[]> tables;
+
+    public BufferPoolStats() {
+        this.tables = new ConcurrentHashMap<Integer, Counters[]>();
+    }
+
+    private Counters counters(PageId pid) {
+        Counters[] c = tables.get(pid.getTableId());
+        if (c == null) {
+            c = tables.computeIfAbsent(pid.getTableId(), k -> {
+                Counters[] n = new Counters[CATEGORIES.length];
+                for (int i = 0; i < n.length; i++)
+                    n[i] = new Counters();
+                return n;
+            });
+        }
+        return c[Category.of(pid).ordinal()];
+    }
+
+    /** Records a request for a page that was cached. */
+    void hit(PageId pid) {
+        counters(pid).hits.increment();
+    }
+
+    /** Records a request for a page that had to be read, and how long that took. */
+    void miss(PageId pid, int bytes, long nanos) {
+        Counters c = counters(pid);
+        c.misses.increment();
+        c.bytesRead.add(bytes);
+        c.missNanos.add(nanos);
+    }
+
+    /** Records a page read ahead of its request; counted as a miss once requested. */
+    void prefetched(PageId pid, int bytes) {
+        counters(pid).bytesRead.add(bytes);
+    }
+
+    /** Records a page dropped from the pool to make room. */
+    void evicted(PageId pid) {
+        counters(pid).evictions.increment();
+    }
+
+    /** Records a dirty page written back to make room. */
+    void dirtyEvicted(PageId pid, int bytes) {
+        Counters c = counters(pid);
+        c.dirtyEvictions.increment();
+        c.bytesWritten.add(bytes);
+    }
+
+    /** Records a page written back on commit or flush. */
+    void flushed(PageId pid, int bytes) {
+        Counters c = counters(pid);
+        c.flushes.increment();
+        c.bytesWritten.add(bytes);
+    }
+
+    /**
+     * @return the counters of the pages of one category of a table; all zero
+     *         if none of them was counted yet
+     */
+    public Counters get(int tableId, Category category) {
+        Counters[] c = tables.get(tableId);
+        return c == null ? new Counters() : c[category.ordinal()];
+    }
+
+    /**
+     * @return the sums of the counters of every category of a table
+     */
+    public Counters getTable(int tableId) {
+        Counters sum = new Counters();
+        Counters[] c = tables.get(tableId);
+        if (c != null)
+            for (Counters n : c)
+                sum.add(n);
+        return sum;
+    }
+
+    /**
+     * @return the sums of the counters of the whole buffer pool
+     */
+    public Counters getTotal() {
+        Counters sum = new Counters();
+        for (Counters[] c : tables.values())
+            for (Counters n : c)
+                sum.add(n);
+        return sum;
+    }
+
+    /**
+     * @return the ids of the tables with counters, in ascending order
+     */
+    public List<Integer> getTableIds() {
+        List<Integer> ids = new ArrayList<Integer>(tables.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /** Sets every counter back to zero. */
+    public void reset() {
+        tables.clear();
+    }
+
+    /**
+     * @return a report with the totals and a line per table and category of
+     *         page that was counted, naming tables known to the catalog
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("total: ").append(getTotal()).append('\n');
+        for (Integer id : getTableIds()) {
+            String name;
+            try {
+                name = Database.getCatalog().getTableName(id);
+            } catch (Exception e) {
+                name = String.valueOf(id);
+            }
+            Counters[] c = tables.get(id);
+            for (Category category : CATEGORIES) {
+                Counters n = c[category.ordinal()];
+                if (!n.isEmpty())
+                    sb.append(name).append(' ').append(category.name().toLowerCase()).append(": ")
+                            .append(n).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPoolStats(" + getTotal() + ")";
+    }
+}
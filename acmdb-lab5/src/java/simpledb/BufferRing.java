@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a small private ring of buffer pool frames used by a large
+ * sequential scan, in the manner of PostgreSQL's buffer access strategies.
+ * Pages a scan reads through its ring are cached as usual, but once the ring
+ * is full every new page pushes the oldest page of the ring out of the
+ * buffer pool again, so the scan keeps reusing the same few frames instead of
+ * evicting the pages other transactions work with.
+ * <p>
+ * A page only stays in the ring while nobody else uses it: a request for it
+ * without this ring hands it over to the normal replacement policy, and a
+ * dirty page is never dropped.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ * @see ReadAhead.Stream#getRing()
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /** Default number of frames in a ring. */
+    public static final int DEFAULT_SIZE = 16;
+
+    private final int size;
+    private final ArrayDeque<PageId> pages;
+
+    /**
+     * Creates a ring of the specified number of frames.
+     */
+    public BufferRing(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("ring size must be positive: " + size);
+        this.size = size;
+        this.pages = new ArrayDeque<PageId>(size + 1);
+    }
+
+    /**
+     * @return the number of frames of this ring
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Records that the buffer pool cached a page for this ring. A page read
+     * again after it left the buffer pool moves to the end of the ring, so
+     * it is never dropped in favour of itself.
+     *
+     * @return the page that no longer fits in the ring and should be dropped
+     *         from the buffer pool, or null
+     */
+    synchronized PageId add(PageId pid) {
+        pages.remove(pid);
+        pages.addLast(pid);
+        return pages.size() > size ? pages.removeFirst() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferRing(" + size + ")";
+    }
+}
@@ -116,6 +116,21 @@ public class Catalog {
             throw new NoSuchElementException();
     }
 
+    /**
+     * Returns the size in bytes of the pages of the specified table, as
+     * reported by its DbFile. Tables that are not in the catalog use the
+     * default page size, so pages can be built before their file is added.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @see BufferPool#getPageSize()
+     */
+    public int getPageSize(int tableid) {
+        TableInfo info = this.idTables.get(tableid);
+        if (info == null)
+            return BufferPool.getPageSize();
+        return info.file.getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         if(this.idTables.containsKey(tableid)){
@@ -134,9 +149,16 @@ public class Catalog {
         return this.idTables.get(id).name;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (TableInfo info : this.idTables.values()) {
+            try {
+                info.file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         this.idTables.clear();
         this.nameTables.clear();
     }
@@ -152,7 +174,9 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [format] [pagesize=N]
+                //where format is "heap" (the default), "slotted" or "pax" and N
+                //is the page size of the table in bytes (the default page size if omitted)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -183,7 +207,38 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // an optional storage format and page size may follow the schema
+                String format = "heap";
+                int pageSize = 0;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().toLowerCase().split("\\s+")) {
+                    if (option.isEmpty())
+                        continue;
+                    if (option.startsWith("pagesize=")) {
+                        try {
+                            pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                        } catch (NumberFormatException e) {
+                            pageSize = -1;
+                        }
+                        if (pageSize <= 0) {
+                            System.out.println("Invalid page size " + option);
+                            System.exit(0);
+                        }
+                    } else
+                        format = option;
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (format.equals("heap"))
+                    tabHf = new HeapFile(dataFile, t, false, pageSize);
+                else if (format.equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t, pageSize);
+                else if (format.equals("pax"))
+                    tabHf = new PaxFile(dataFile, t, pageSize);
+                else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
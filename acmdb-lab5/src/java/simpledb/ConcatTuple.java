@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * ConcatTuple is a Tuple made of the fields of two other tuples, the fields
+ * of the left one followed by the fields of the right one. Join operators
+ * return it instead of copying every field reference into a new tuple for
+ * each output row.
+ * <p>
+ * The child tuples are not copied, so they must not be modified while the
+ * concatenation is in use; operators never modify the tuples they consume.
+ * setField only changes the concatenation, and resetTupleDesc turns it into
+ * a plain tuple of the new schema.
+ *
+ * @see Join
+ * @see HashEquiJoin
+ */
+public class ConcatTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private Tuple left;
+    private Tuple right;
+    private final int numLeft;
+    private Field[] overrides;
+
+    /**
+     * Creates the concatenation of two tuples.
+     *
+     * @param td
+     *            the schema of the result, normally
+     *            TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc())
+     * @param left
+     *            the tuple providing the first fields
+     * @param right
+     *            the tuple providing the remaining fields
+     */
+    public ConcatTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.numLeft = left.getTupleDesc().numFields();
+        this.overrides = null;
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (!isView())
+            return super.getField(i);
+        if (overrides != null && overrides[i] != null)
+            return overrides[i];
+        return i < numLeft ? left.getField(i) : right.getField(i - numLeft);
+    }
+
+    @Override
+    public int getInt(int i) {
+        if (!isView())
+            return super.getInt(i);
+        if (overrides != null && overrides[i] != null)
+            return ((IntField) overrides[i]).getValue();
+        return i < numLeft ? left.getInt(i) : right.getInt(i - numLeft);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (!isView()) {
+            super.setField(i, f);
+            return;
+        }
+        if (overrides == null)
+            overrides = new Field[getTupleDesc().numFields()];
+        overrides[i] = f;
+    }
+
+    /**
+     * Drops the child tuples, and holds the fields of the new schema like a
+     * plain tuple from now on.
+     */
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        left = null;
+        right = null;
+        overrides = null;
+        super.resetTupleDesc(td);
+    }
+}
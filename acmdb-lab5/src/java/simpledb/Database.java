@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Database is a class that initializes several static variables used by the
@@ -55,11 +56,56 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * using the specified replacement policy and return it
+     *
+     * @param policy e.g. one of {@link BufferPool.Policy}
+     */
+    public static BufferPool resetBufferPool(int pages, Supplier<? extends BufferPool.ReplacementPolicy> policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with a budget of the specified number of bytes and return it
+     *
+     * @see BufferPool#withCapacityBytes(long)
+     */
+    public static BufferPool resetBufferPoolBytes(long capacityBytes) {
+        return resetBufferPool(BufferPool.withCapacityBytes(capacityBytes));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with a budget of the specified number of bytes, using the specified
+     * replacement policy, and return it
+     */
+    public static BufferPool resetBufferPoolBytes(long capacityBytes,
+            Supplier<? extends BufferPool.ReplacementPolicy> policy) {
+        return resetBufferPool(BufferPool.withCapacityBytes(capacityBytes, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with a budget of the specified number of bytes of page frames
+     * allocated outside of the Java heap, and return it
+     *
+     * @see BufferPool#offHeap(long)
+     */
+    public static BufferPool resetBufferPoolOffHeap(long capacityBytes) {
+        return resetBufferPool(BufferPool.offHeap(capacityBytes));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +121,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._catalog.clear();
     }
 
 }
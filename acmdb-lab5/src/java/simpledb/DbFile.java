@@ -19,6 +19,17 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk, into a frame of the specified arena
+     * if this file supports pages over arena frames and the arena has a
+     * free frame of its page size. By default pages are read onto the heap.
+     *
+     * @see FrameArena
+     */
+    public default Page readPage(PageId id, FrameArena arena) {
+        return readPage(id);
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +39,33 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Releases the resources (open channels, memory mappings) this file holds.
+     * The file may still be used afterwards; resources are reacquired lazily.
+     *
+     * @throws IOException if closing the underlying file fails
+     */
+    public default void close() throws IOException {
+    }
+
+    /**
+     * Returns the number of pages in this file. Used by the optimizer to
+     * estimate the cost of a scan.
+     */
+    public int numPages();
+
+    /**
+     * Returns the size in bytes of the pages of this file. The buffer pool
+     * sizes the frames of this file's pages from it, and the pages use it to
+     * lay out their contents. By default files use the page size of the
+     * buffer pool.
+     *
+     * @see BufferPool#getPageSize()
+     */
+    public default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +106,51 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the specified fields of all the tuples stored
+     * in this DbFile. The returned tuples have the TupleDesc
+     * getTupleDesc().project(fields) and carry the RecordId of the stored
+     * tuple. Files with a columnar layout override this to decode only the
+     * requested fields; by default full tuples are read and then projected.
+     *
+     * @param fields the indexes of the fields to return, in order
+     * @return an iterator over the projected tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, final int[] fields) {
+        final DbFileIterator it = iterator(tid);
+        final TupleDesc projected = getTupleDesc().project(fields);
+        return new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!it.hasNext())
+                    return null;
+                Tuple t = it.next();
+                Tuple p = new Tuple(projected);
+                for (int i = 0; i < fields.length; i++)
+                    p.setField(i, t.getField(fields[i]));
+                p.setRecordId(t.getRecordId());
+                return p;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
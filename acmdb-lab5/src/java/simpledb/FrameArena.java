@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * FrameArena is a fixed set of page frames carved out of a few large direct
+ * ByteBuffer slabs, allocated once when the arena is created. Pages read
+ * into a frame keep their bytes outside of the Java heap, so the heap (and
+ * the work of the garbage collector) no longer grows with the size of the
+ * buffer pool.
+ * <p>
+ * Frames are handed out by {@link #allocate} and given back by
+ * {@link #free}; the arena never allocates more memory, so allocate returns
+ * null once every frame is in use and callers fall back to heap pages.
+ *
+ * @see BufferPool#offHeap(long)
+ * @see DbFile#readPage(PageId, FrameArena)
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** Largest slab allocated at once, in bytes. */
+    public static final int MAX_SLAB_SIZE = 64 << 20;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final ArrayDeque<ByteBuffer> free;
+
+    /**
+     * Creates an arena of the specified number of bytes of frames.
+     *
+     * @param capacityBytes total size of the frames; rounded down to whole frames
+     * @param frameSize size of every frame, normally the default page size
+     */
+    public FrameArena(long capacityBytes, int frameSize) {
+        if (frameSize <= 0 || capacityBytes < frameSize)
+            throw new IllegalArgumentException("arena of " + capacityBytes + " bytes cannot hold a frame of "
+                    + frameSize + " bytes");
+        this.frameSize = frameSize;
+        this.numFrames = (int) Math.min(Integer.MAX_VALUE, capacityBytes / frameSize);
+        this.free = new ArrayDeque<ByteBuffer>(numFrames);
+        int framesPerSlab = Math.max(1, MAX_SLAB_SIZE / frameSize);
+        for (int first = 0; first < numFrames; first += framesPerSlab) {
+            int n = Math.min(framesPerSlab, numFrames - first);
+            ByteBuffer slab = ByteBuffer.allocateDirect(n * frameSize);
+            for (int i = 0; i < n; i++) {
+                ByteBuffer view = slab.duplicate();
+                view.limit((i + 1) * frameSize);
+                view.position(i * frameSize);
+                free.add(view.slice());
+            }
+        }
+    }
+
+    /**
+     * @return the size in bytes of every frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of frames of this arena
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames not in use
+     */
+    public synchronized int getFreeFrames() {
+        return free.size();
+    }
+
+    /**
+     * Takes a frame out of the arena. Its contents are undefined.
+     *
+     * @return a buffer of {@link #getFrameSize()} bytes, or null if every
+     *         frame is in use
+     */
+    public synchronized ByteBuffer allocate() {
+        return free.pollLast();
+    }
+
+    /**
+     * Gives a frame back to the arena. Nothing may use the frame afterwards.
+     *
+     * @param frame a frame returned by {@link #allocate} of this arena
+     */
+    public synchronized void free(ByteBuffer frame) {
+        if (frame == null)
+            return;
+        if (!frame.isDirect() || frame.capacity() != frameSize || free.size() >= numFrames)
+            throw new IllegalArgumentException("not a frame of this arena: " + frame);
+        frame.clear();
+        free.addLast(frame);
+    }
+
+    @Override
+    public String toString() {
+        return "FrameArena(" + numFrames + " x " + frameSize + ")";
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap tracks the approximate amount of free space on every page of a
+ * HeapFile (in tuple slots) or SlottedHeapFile (in bytes), so inserts can go
+ * straight to a page with room instead of loading and locking every page of
+ * the table.
+ * <p>
+ * Each page is described by one byte holding its free-space category: 0 means
+ * the page is full, 1..254 is the fraction of free space scaled to 254
+ * (rounded up, so any free space gives a non-zero category) and {@link #UNKNOWN}
+ * means the page has never been observed. The map is stored in a side file
+ * next to the heap file (the heap file name followed by ".fsm"), one byte per
+ * page, and is only used if it is at least as recent as the heap file.
+ * <p>
+ * The map is a hint. Entries are refreshed from the real page contents
+ * whenever a page is read from or written to disk, and after every insert or
+ * delete; since aborts and recovery restore pages by reading or writing them,
+ * the map converges back to the truth on its own. Callers must still check
+ * the page before relying on an entry.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Category of a page whose free space has never been observed. */
+    public static final int UNKNOWN = 255;
+
+    /** Largest category of a page with free slots. */
+    private static final int MAX_CATEGORY = 254;
+
+    private final File heapFile;
+    private final PageChannel channel;
+    private byte[] categories;
+    private int numEntries;
+    private int firstCandidate;
+    private boolean loaded;
+
+    /**
+     * Creates the free-space map of the specified heap file.
+     *
+     * @param heapFile the file backing the HeapFile this map describes
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.heapFile = heapFile;
+        this.channel = new PageChannel(new File(heapFile.getPath() + ".fsm"));
+        this.categories = new byte[0];
+        this.numEntries = 0;
+        this.firstCandidate = 0;
+        this.loaded = false;
+    }
+
+    /**
+     * Returns the free-space category for a page with the specified number of
+     * free slots out of numSlots.
+     */
+    public static int category(int freeSlots, int numSlots) {
+        if (freeSlots <= 0 || numSlots <= 0)
+            return 0;
+        return Math.max(1, Math.min(MAX_CATEGORY, (int) Math.ceil(freeSlots * (double) MAX_CATEGORY / numSlots)));
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        File fsmFile = channel.getFile();
+        if (!fsmFile.exists() || fsmFile.lastModified() < heapFile.lastModified())
+            return;
+        try {
+            int len = (int) channel.size();
+            byte[] data = new byte[len];
+            len = channel.read(data, 0);
+            ensureCapacity(len);
+            System.arraycopy(data, 0, categories, 0, len);
+            numEntries = len;
+        } catch (IOException e) {
+            // an unreadable map is just an empty hint
+            numEntries = 0;
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (categories.length < n) {
+            int old = categories.length;
+            categories = Arrays.copyOf(categories, Math.max(n, old * 2));
+            Arrays.fill(categories, old, categories.length, (byte) UNKNOWN);
+        }
+    }
+
+    /**
+     * Returns the category recorded for the specified page.
+     */
+    public synchronized int get(int pageNo) {
+        load();
+        if (pageNo >= numEntries)
+            return UNKNOWN;
+        return categories[pageNo] & 0xFF;
+    }
+
+    /**
+     * Records the number of free slots on the specified page.
+     */
+    public synchronized void update(int pageNo, int freeSlots, int numSlots) {
+        load();
+        ensureCapacity(pageNo + 1);
+        int c = category(freeSlots, numSlots);
+        categories[pageNo] = (byte) c;
+        if (pageNo >= numEntries) {
+            Arrays.fill(categories, numEntries, pageNo, (byte) UNKNOWN);
+            numEntries = pageNo + 1;
+        }
+        if (c != 0 && pageNo < firstCandidate)
+            firstCandidate = pageNo;
+    }
+
+    /**
+     * Records the free space of the specified page as observed from its contents.
+     */
+    public void update(HeapPage page) {
+        update(page.getId().pageNumber(), page.getNumEmptySlots(), page.getNumSlots());
+    }
+
+    /**
+     * Records the free space of the specified slotted page as observed from its contents.
+     */
+    public void update(SlottedPage page) {
+        update(page.getId().pageNumber(), page.getFreeSpace(), SlottedPage.getCapacity(page.data.length));
+    }
+
+    /**
+     * Returns the lowest-numbered page at or after start that may have a free
+     * slot, i.e. whose category is non-zero, or -1 if there is none before numPages.
+     *
+     * @param start the first page to consider
+     * @param numPages the number of pages in the heap file
+     */
+    public int findPageWithFreeSpace(int start, int numPages) {
+        return findPageWithFreeSpace(start, numPages, 1);
+    }
+
+    /**
+     * Returns the lowest-numbered page at or after start whose category is at
+     * least minCategory (or unknown), or -1 if there is none before numPages.
+     * Since categories are rounded up, asking for category(needed, total)
+     * never skips a page that has the needed amount of free space.
+     *
+     * @param start the first page to consider
+     * @param numPages the number of pages in the heap file
+     * @param minCategory the smallest acceptable category, at least 1
+     */
+    public synchronized int findPageWithFreeSpace(int start, int numPages, int minCategory) {
+        load();
+        minCategory = Math.max(1, minCategory);
+        // skip the run of full pages at the start of the file once and for all
+        while (firstCandidate < numEntries && firstCandidate < numPages && categories[firstCandidate] == 0)
+            firstCandidate++;
+        for (int i = Math.max(start, firstCandidate); i < numPages; i++) {
+            if (i >= numEntries || (categories[i] & 0xFF) >= minCategory)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the entry of the specified page to the side file.
+     */
+    public void persist(int pageNo) throws IOException {
+        byte[] entry;
+        synchronized (this) {
+            load();
+            if (pageNo >= numEntries)
+                return;
+            entry = new byte[] { categories[pageNo] };
+        }
+        long size = channel.size();
+        if (size < pageNo) {
+            // entries between the old end of the side file and this page are unknown
+            byte[] gap = new byte[(int) (pageNo - size)];
+            Arrays.fill(gap, (byte) UNKNOWN);
+            channel.write(gap, size);
+        }
+        channel.write(entry, pageNo);
+    }
+
+    /**
+     * Closes the side file.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
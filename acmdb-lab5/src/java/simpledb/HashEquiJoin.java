@@ -127,12 +127,7 @@ public class HashEquiJoin extends Operator {
      */
 
     private Tuple mergeTuple(Tuple a, Tuple b){
-        Tuple ret = new Tuple(this.ctd);
-        int nf1 = a.getTupleDesc().numFields();
-        int nf2 = b.getTupleDesc().numFields();
-        for (int i = 0; i < nf1; ++i) ret.setField(i, a.getField(i));
-        for (int i = nf1; i < nf1 + nf2; ++i) ret.setField(i, b.getField(i - nf1));
-        return ret;
+        return new ConcatTuple(this.ctd, a, b);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -23,15 +24,100 @@ public class HeapFile implements DbFile {
      *            file.
      */
 
+    /** Number of pages packed in memory and appended with one write by bulkLoad. */
+    public static final int BULK_LOAD_BATCH_PAGES = 64;
+
+    /** Number of pages covered by one memory-mapped region of the file. */
+    private static final int PAGES_PER_MAPPED_REGION = 256;
+
     private File file;
     private TupleDesc tupleDesc;
-    private int numPage;
+    private final PageChannel pageChannel;
+    private final FreeSpaceMap freeSpaceMap;
+    /** The end of the pages reserved by appends, in pages; protected by this. */
+    private int appendEnd;
+    private volatile boolean memoryMapped;
+    private final int pageSize;
 
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally in
+     * memory-mapped read mode.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the TupleDesc of the tuples stored in this file.
+     * @param memoryMapped
+     *            if true, pages are read through read-only memory-mapped
+     *            regions of the file instead of positional reads.
+     * @see #setMemoryMapped(boolean)
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages have
+     * the specified size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the TupleDesc of the tuples stored in this file.
+     * @param memoryMapped
+     *            if true, pages are read through read-only memory-mapped
+     *            regions of the file instead of positional reads.
+     * @param pageSize
+     *            the size of the pages of this file in bytes, or 0 to use
+     *            the page size of the buffer pool.
+     * @see #getPageSize()
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, int pageSize) {
         // some code goes here
+        if (pageSize < 0)
+            throw new IllegalArgumentException("negative page size " + pageSize);
         this.file = f;
         this.tupleDesc = td;
+        this.pageChannel = new PageChannel(f);
+        this.freeSpaceMap = new FreeSpaceMap(f);
+        this.memoryMapped = memoryMapped;
+        this.pageSize = pageSize;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    /**
+     * Switches memory-mapped read mode on or off. In this mode readPage builds
+     * HeapPages straight from the mapped file bytes, which suits read-mostly
+     * tables whose data is warm in the OS page cache. Writes always go through
+     * the file channel; the mapping shares the OS page cache with it and so
+     * sees them.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Returns true if this file reads pages through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
 
+    /**
+     * Returns the free-space map that directs inserts to pages with room.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
     }
 
     /**
@@ -72,14 +158,20 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
        Page page = null;
-       int pageSize = BufferPool.getPageSize();
-       byte[] data = new byte[pageSize];
-       int offset = pid.pageNumber() * pageSize;
+       int pageSize = getPageSize();
+       long offset = (long) pid.pageNumber() * pageSize;
        try {
-           RandomAccessFile in = new RandomAccessFile(this.file, "r");
-           in.seek(offset);
-           in.read(data, 0, pageSize);
-           page = new HeapPage((HeapPageId)(pid), data);
+           if (memoryMapped) {
+               page = pageChannel.readMapped(offset, pageSize, (long) pageSize * PAGES_PER_MAPPED_REGION,
+                       data -> new HeapPage((HeapPageId) pid, data));
+           }
+           if (page == null) {
+               byte[] data = new byte[pageSize];
+               pageChannel.read(data, offset);
+               page = HeapPage.wrap((HeapPageId) pid, data);
+           }
+           // every page image we see from disk refreshes the free-space map
+           freeSpaceMap.update((HeapPage) page);
        }catch (Exception e){
            e.printStackTrace();
            System.exit(1);
@@ -87,17 +179,41 @@ public class HeapFile implements DbFile {
        return page;
     }
 
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid, FrameArena arena) {
+        int pageSize = getPageSize();
+        // memory-mapped pages are already served from outside the heap
+        if (arena == null || memoryMapped || arena.getFrameSize() != pageSize)
+            return readPage(pid);
+        ByteBuffer frame = arena.allocate();
+        if (frame == null)
+            return readPage(pid);
+        HeapPage page = null;
+        try {
+            pageChannel.read(frame, (long) pid.pageNumber() * pageSize);
+            while (frame.hasRemaining())
+                frame.put((byte) 0);
+            frame.clear();
+            page = HeapPage.wrap((HeapPageId) pid, frame);
+            freeSpaceMap.update(page);
+        }catch (Exception e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return page;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int pageSize = BufferPool.getPageSize();
+        int pageSize = getPageSize();
         PageId pid = page.getId();
-        int offset = pid.pageNumber() * pageSize;
+        long offset = (long) pid.pageNumber() * pageSize;
         try {
-            RandomAccessFile in = new RandomAccessFile(this.file, "rw");
-            in.seek(offset);
-            in.write(page.getPageData());
+            pageChannel.write(page.getPageData(), offset);
+            freeSpaceMap.update((HeapPage) page);
+            freeSpaceMap.persist(pid.pageNumber());
         }catch (Exception e){
             e.printStackTrace();
             System.exit(1);
@@ -109,8 +225,18 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        int pageSize = BufferPool.getPageSize();
-        return (int) file.length() / pageSize;
+        int pageSize = getPageSize();
+        try {
+            return (int) (pageChannel.size() / pageSize);
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        pageChannel.close();
+        freeSpaceMap.close();
     }
 
     // see DbFile.java for javadocs
@@ -123,30 +249,232 @@ public class HeapFile implements DbFile {
         HeapPage heapPage;
         int tableid = getId();
         ArrayList<Page> dirtyPage = new ArrayList<>();
-        for(int i = 0; i < np; ++i){
-            heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableid, i), Permissions.READ_ONLY);
+        // only visit pages the free-space map says may have room; a page
+        // is only looked at under IS, and locked SIX once it is written
+        for(int i = freeSpaceMap.findPageWithFreeSpace(0, np); i >= 0; i = freeSpaceMap.findPageWithFreeSpace(i + 1, np)){
+            HeapPageId pid = new HeapPageId(tableid, i);
+            BufferPool.Frame frame = Database.getBufferPool().pinPageForTuples(tid, pid, Permissions.READ_ONLY, null);
+            heapPage = (HeapPage) frame.getPage();
+            Database.getBufferPool().unpinPage(tid, frame);
             if(heapPage.getNumEmptySlots() > 0){
-                heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableid, i), Permissions.READ_WRITE);
-                heapPage.insertTuple(t);
-                dirtyPage.add(heapPage);
-                return dirtyPage;
+                frame = Database.getBufferPool().pinPageForTuples(tid, pid, Permissions.READ_WRITE, null);
+                try {
+                    heapPage = (HeapPage) frame.getPage();
+                    int slot = firstEmptySlot(heapPage);
+                    if (slot >= 0) {
+                        // no one else writes the page under our SIX lock, so
+                        // the tuple goes to the slot locked here
+                        Database.getBufferPool().lockTuple(tid, new RecordId(pid, slot), Permissions.READ_WRITE);
+                        frame.latchExclusive();
+                        try {
+                            heapPage.insertTuple(t);
+                        } finally {
+                            frame.unlatchExclusive();
+                        }
+                    }
+                } finally {
+                    Database.getBufferPool().unpinPage(tid, frame);
+                }
+                freeSpaceMap.update(heapPage);
+                if (t.getRecordId() != null) {
+                    dirtyPage.add(heapPage);
+                    return dirtyPage;
+                }
+                continue;
             }
+            freeSpaceMap.update(heapPage);
         }
-        heapPage = new HeapPage(new HeapPageId(getId(), np), HeapPage.createEmptyPageData());
+        // appends take their page numbers like bulk loads, which also extend the file
+        np = reservePages(1);
+        heapPage = HeapPage.wrap(new HeapPageId(getId(), np), HeapPage.createEmptyPageData(getPageSize()));
         heapPage.insertTuple(t);
         writePage(heapPage);
+        Database.getBufferPool().lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
         dirtyPage.add(heapPage);
         return dirtyPage;
     }
 
+    /** @return the first empty slot of the page, or -1 if it is full */
+    private static int firstEmptySlot(HeapPage page) {
+        for (int i = 0; i < page.getNumSlots(); i++) {
+            if (!page.isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Source of tuples for a bulk load; returns null when exhausted. */
+    private interface TupleSource {
+        Tuple next() throws DbException, TransactionAbortedException, IOException;
+    }
+
+    /**
+     * Appends all tuples produced by the child iterator to this file on behalf
+     * of the specified transaction, bypassing the per-tuple buffer pool path.
+     * Tuples are packed into full page images in memory and appended in
+     * batches of {@link #BULK_LOAD_BATCH_PAGES} pages with one sequential write
+     * each. The appended pages are locked exclusively for the transaction until
+     * it completes, and are wiped if it aborts.
+     *
+     * @param tid the transaction performing the load
+     * @param child an open iterator over the tuples to load; its TupleDesc must
+     *            match the one of this file
+     * @return the number of tuples loaded
+     */
+    public int bulkLoad(TransactionId tid, final DbIterator child)
+            throws DbException, IOException, TransactionAbortedException {
+        return bulkLoad(tid, new TupleSource() {
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.hasNext() ? child.next() : null;
+            }
+        });
+    }
+
+    /**
+     * Appends the rows of a delimited text file (one tuple per line, in the
+     * format accepted by {@link HeapFileEncoder}) to this file on behalf of the
+     * specified transaction.
+     *
+     * @param tid the transaction performing the load
+     * @param inFile the text file to read
+     * @param fieldSeparator the character separating fields on a line
+     * @return the number of tuples loaded
+     * @see #bulkLoad(TransactionId, DbIterator)
+     */
+    public int bulkLoad(TransactionId tid, File inFile, final char fieldSeparator)
+            throws DbException, IOException, TransactionAbortedException {
+        final BufferedReader br = new BufferedReader(new FileReader(inFile));
+        try {
+            return bulkLoad(tid, new TupleSource() {
+                @Override
+                public Tuple next() throws DbException, IOException {
+                    String line;
+                    do {
+                        line = br.readLine();
+                        if (line == null)
+                            return null;
+                    } while (line.trim().isEmpty());
+                    return parseLine(line, fieldSeparator);
+                }
+            });
+        } finally {
+            br.close();
+        }
+    }
+
+    private Tuple parseLine(String line, char fieldSeparator) throws DbException {
+        String[] fields = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        if (fields.length != tupleDesc.numFields())
+            throw new DbException("expected " + tupleDesc.numFields() + " fields: " + line);
+        Tuple t = new Tuple(tupleDesc);
+        for (int i = 0; i < fields.length; i++) {
+            String s = fields[i].trim();
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(s)));
+                } catch (NumberFormatException e) {
+                    throw new DbException("bad integer field " + s + " in line: " + line);
+                }
+            } else {
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                t.setField(i, new StringField(s, Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    private int bulkLoad(TransactionId tid, TupleSource source)
+            throws DbException, IOException, TransactionAbortedException {
+        int slotsPerPage = HeapPage.getNumSlots(tupleDesc, getPageSize());
+        int batchTuples = slotsPerPage * BULK_LOAD_BATCH_PAGES;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>(batchTuples);
+        int count = 0;
+        Tuple t;
+        while ((t = source.next()) != null) {
+            if (!t.getTupleDesc().equals(tupleDesc))
+                throw new DbException("TupleDesc not match");
+            batch.add(t);
+            if (batch.size() == batchTuples) {
+                appendBatch(tid, batch, slotsPerPage);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            appendBatch(tid, batch, slotsPerPage);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    /**
+     * Packs the tuples into consecutive full pages and appends them to the file
+     * with a single write.
+     */
+    private void appendBatch(TransactionId tid, List<Tuple> tuples, int slotsPerPage)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageSize = getPageSize();
+        int nPages = (tuples.size() + slotsPerPage - 1) / slotsPerPage;
+        byte[] data = new byte[nPages * pageSize];
+        int firstPage = reservePages(nPages);
+        ArrayList<Page> beforeImages = new ArrayList<Page>(nPages);
+        for (int i = 0; i < nPages; i++) {
+            HeapPageId pid = new HeapPageId(getId(), firstPage + i);
+            beforeImages.add(HeapPage.wrap(pid, HeapPage.createEmptyPageData(getPageSize())));
+        }
+        // lock the new pages before anyone can see them in the file; this
+        // may wait, so it is done outside the monitor
+        Database.getBufferPool().lockAppendedPages(tid, beforeImages);
+
+        for (int i = 0; i < nPages; i++) {
+            HeapPageId pid = new HeapPageId(getId(), firstPage + i);
+            int from = i * slotsPerPage;
+            List<Tuple> onPage = tuples.subList(from, Math.min(from + slotsPerPage, tuples.size()));
+            byte[] pageData = HeapPage.createPageData(pid, tupleDesc, onPage);
+            System.arraycopy(pageData, 0, data, i * pageSize, pageSize);
+        }
+        pageChannel.write(data, (long) firstPage * pageSize);
+
+        for (int i = 0; i < nPages; i++) {
+            int onPage = Math.min(slotsPerPage, tuples.size() - i * slotsPerPage);
+            freeSpaceMap.update(firstPage + i, slotsPerPage - onPage, slotsPerPage);
+            freeSpaceMap.persist(firstPage + i);
+        }
+    }
+
+    /**
+     * Reserves the numbers of n pages to append to the file, after the pages
+     * in the file and those reserved by appends still in progress. Only the
+     * reservation is serialized; the caller locks and writes the pages
+     * without holding the monitor of the file.
+     *
+     * @return the number of the first reserved page
+     */
+    private synchronized int reservePages(int n) {
+        int first = Math.max(numPages(), this.appendEnd);
+        this.appendEnd = first + n;
+        return first;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
         PageId pageId = t.getRecordId().getPageId();
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-        heapPage.deleteTuple(t);
+        Database.getBufferPool().lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+        BufferPool.Frame frame = Database.getBufferPool().pinPageForTuples(tid, pageId, Permissions.READ_WRITE, null);
+        HeapPage heapPage = (HeapPage) frame.getPage();
+        frame.latchExclusive();
+        try {
+            heapPage.deleteTuple(t);
+        } finally {
+            frame.unlatchExclusive();
+            Database.getBufferPool().unpinPage(tid, frame);
+        }
+        freeSpaceMap.update(heapPage);
         ArrayList<Page> dirtyPage = new ArrayList<>();
         dirtyPage.add(heapPage);
 //        try {
@@ -158,69 +486,174 @@ public class HeapFile implements DbFile {
     }
 
 
+    /**
+     * Iterates over the tuples of the file, locking each tuple S before
+     * returning it, under an IS lock on its page, so the scan does not keep
+     * other transactions from writing the tuples it has not read.
+     */
     class HeapFileIterator implements DbFileIterator{
 
         private boolean isOpen;
         private int currentPageNumber;
-        private Iterator<Tuple> currentPageIterator;
         private TransactionId transactionId;
+        private ReadAhead.Stream readAhead;
+        /** The frame of the page being read, pinned so it is not evicted meanwhile. */
+        private BufferPool.Frame currentFrame;
+        /** The page being read, or null before the scan is opened. */
+        private HeapPage currentPage;
+        /** The next slot of the page to look at. */
+        private int slot;
+        /** The slots in use when the page was fetched. */
+        private BitSet usedSlots;
+        /** The tuple hasNext found, until next returns it. */
+        private Tuple nextTuple;
+        /** The before image of the page, while another transaction writes it. */
+        private HeapPage beforeImage;
+        /** The transaction whose changes beforeImage comes before. */
+        private TransactionId beforeImageOf;
 
         public HeapFileIterator(TransactionId tid){
             this.isOpen = false;
             this.currentPageNumber = 0;
-            this.currentPageIterator = null;
             this.transactionId = tid;
+            this.readAhead = null;
+        }
+
+        /**
+         * Fetches the specified page for this scan, letting the read-ahead
+         * stream know about the access first, through the ring of the stream
+         * if it has one. The page stays pinned until the scan moves to
+         * another page or is closed.
+         */
+        private HeapPage fetchPage(int pageNumber, int np) throws DbException, TransactionAbortedException {
+            BufferRing ring = null;
+            if (readAhead != null) {
+                readAhead.access(pageNumber, np);
+                ring = readAhead.getRing();
+            }
+            HeapPageId pageId = new HeapPageId(getId(), pageNumber);
+            // the page left behind is no longer read, so a pool with a single
+            // free frame still fits the next one
+            unpin();
+            currentFrame = Database.getBufferPool().pinPageForTuples(this.transactionId, pageId,
+                    Permissions.READ_ONLY, ring);
+            currentPage = (HeapPage) currentFrame.getPage();
+            usedSlots = currentPage.getUsedSlots();
+            slot = 0;
+            beforeImage = null;
+            beforeImageOf = null;
+            return currentPage;
+        }
+
+        private void unpin() {
+            if (currentFrame != null) {
+                Database.getBufferPool().unpinPage(this.transactionId, currentFrame);
+                currentFrame = null;
+            }
+        }
+
+        /**
+         * @return true if the slot may hold a tuple: it was in use when the
+         *         page was fetched (tuples added since, e.g. by this scan's
+         *         own transaction, are not returned), or another transaction
+         *         writing the page emptied it and may still abort
+         */
+        private boolean mayHoldTuple(int s) {
+            if (usedSlots.get(s))
+                return true;
+            TransactionId dirtier = currentPage.isDirty();
+            if (dirtier == null || dirtier.equals(this.transactionId))
+                return false;
+            if (!dirtier.equals(beforeImageOf)) {
+                currentFrame.latchShared();
+                try {
+                    beforeImage = currentPage.getBeforeImage();
+                } finally {
+                    currentFrame.unlatchShared();
+                }
+                beforeImageOf = dirtier;
+            }
+            return beforeImage.isSlotUsed(s);
+        }
+
+        /**
+         * Finds the next tuple of the current page, locking it first.
+         * @return the tuple, or null if the rest of the page is empty
+         */
+        private Tuple nextOnPage() throws DbException, TransactionAbortedException {
+            while (slot < currentPage.getNumSlots()) {
+                if (!mayHoldTuple(slot)) {
+                    slot++;
+                    continue;
+                }
+                RecordId rid = new RecordId(currentPage.getId(), slot);
+                Database.getBufferPool().lockTuple(this.transactionId, rid, Permissions.READ_ONLY);
+                if (!Database.getBufferPool().isCurrent(this.transactionId, currentFrame, currentPage)) {
+                    // a writer of the page aborted or it was replaced while we
+                    // waited; look at the slot again in the current version
+                    int s = slot;
+                    fetchPage(currentPageNumber, numPages());
+                    slot = s;
+                    continue;
+                }
+                Tuple t = currentPage.getTuple(slot++);
+                if (t != null)
+                    return t;
+            }
+            return null;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             isOpen = true;
-            HeapPageId pageId = new HeapPageId(getId(), this.currentPageNumber);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.transactionId, pageId,
-                    Permissions.READ_ONLY);
-            currentPageIterator = page.iterator();
+            if (readAhead == null)
+                readAhead = Database.getBufferPool().getReadAhead().open(this.transactionId, getId());
+            fetchPage(this.currentPageNumber, numPages());
+            nextTuple = null;
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if(currentPageIterator == null) return false;
-            else{
-                if(currentPageIterator.hasNext()) return true;
-                else{
-                    int np = numPages();
-                    while (!currentPageIterator.hasNext() && currentPageNumber < np - 1){
-                        currentPageNumber += 1;
-                        HeapPageId pageId = new HeapPageId(getId(), this.currentPageNumber);
-                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.transactionId, pageId,
-                                Permissions.READ_ONLY);
-                        currentPageIterator = page.iterator();
-                    }
-                    return currentPageIterator.hasNext();
-                }
+            if(currentPage == null) return false;
+            if(nextTuple != null) return true;
+            nextTuple = nextOnPage();
+            if(nextTuple != null) return true;
+            int np = numPages();
+            while (nextTuple == null && currentPageNumber < np - 1){
+                currentPageNumber += 1;
+                fetchPage(this.currentPageNumber, np);
+                nextTuple = nextOnPage();
             }
+            return nextTuple != null;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if(currentPageIterator == null || !currentPageIterator.hasNext())
+            if(!hasNext())
                 throw new NoSuchElementException();
-            else return currentPageIterator.next();
+            Tuple t = nextTuple;
+            nextTuple = null;
+            return t;
         }
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             this.currentPageNumber = 0;
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(this.transactionId,
-                    new HeapPageId(getId(),currentPageNumber),
-                    Permissions.READ_ONLY);
-            this.currentPageIterator = p.iterator();
+            fetchPage(currentPageNumber, numPages());
+            nextTuple = null;
         }
 
         @Override
         public void close() {
             isOpen = false;
             currentPageNumber = 0;
-            currentPageIterator = null;
+            currentPage = null;
+            nextTuple = null;
+            unpin();
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
         }
     }
 
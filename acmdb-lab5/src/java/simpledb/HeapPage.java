@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,61 +16,155 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    final int tupleSize;
+    final int[] fieldOffsets;
+    /** The page image; the slot bitmap followed by the tuple slots. */
+    private volatile ByteBuffer buf;
+    /** The frame of a {@link FrameArena} holding the page image, or null. */
+    private ByteBuffer frame;
+    /** Tuples handed out so far, by slot; null means none yet (or empty). */
+    final Tuple tuples[];
     protected volatile TransactionId dirtier = null;
 
+    /** The before image, or null while the page is unchanged since it was set. */
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table, {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps (a copy of) these bytes and decodes tuples and fields
+     * only when they are accessed.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()), null);
+    }
+
+    /**
+     * Create a HeapPage directly from a view of page bytes, e.g. a slice of a
+     * memory-mapped file. The page keeps a read-only view of the buffer
+     * instead of copying it, and only copies the bytes onto the heap the
+     * first time it is modified. The caller must not change the bytes of the
+     * buffer while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data.slice().asReadOnlyBuffer(), null);
+    }
+
+    /**
+     * Creates a page that takes ownership of the specified array instead of
+     * copying it. Used by HeapFile for freshly read pages nobody else sees.
+     */
+    static HeapPage wrap(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, ByteBuffer.wrap(data), null);
+    }
+
+    /**
+     * Creates a page that works directly over a frame of a {@link FrameArena}
+     * holding its image. The page owns the frame until
+     * {@link #releaseFrame()} hands it back.
+     */
+    static HeapPage wrap(HeapPageId id, ByteBuffer frame) throws IOException {
+        return new HeapPage(id, frame, frame);
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer buf, ByteBuffer frame) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = getNumSlots(td, pageSize);
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = offset;
+            offset += td.getFieldType(j).getLen();
+        }
+        if (buf.capacity() < pageSize)
+            throw new IOException("page data is " + buf.capacity() + " bytes, expected " + pageSize);
+        this.buf = buf;
+        this.frame = frame;
+        this.tuples = new Tuple[numSlots];
+
+        // empty slots and the padding always read back as zeros; a shared
+        // image is only copied if they do not already
+        if (buf.isReadOnly() && !isCleared())
+            this.buf = ByteBuffer.wrap(copyOf(buf));
+        if (!this.buf.isReadOnly()) {
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    clear(slotOffset(i), slotOffset(i) + tupleSize);
+            }
+            clear(slotOffset(numSlots), this.buf.capacity());
         }
-        dis.close();
 
         setBeforeImage();
     }
 
-    /** Retrieve the number of tuples on this page.
-        @return the number of tuples on this page
-    */
-    private int getNumTuples() {
-        // some code goes here
-        return (int) Math.floor((float)(BufferPool.getPageSize() * 8.0) /
-                (float)(Database.getCatalog().getTupleDesc(this.pid.getTableId()).getSize() * 8.0 + 1));
+    private void clear(int from, int to) {
+        ByteBuffer b = buf;
+        if (b.hasArray()) {
+            Arrays.fill(b.array(), b.arrayOffset() + from, b.arrayOffset() + to, (byte) 0);
+        } else {
+            for (int i = from; i < to; i++)
+                b.put(i, (byte) 0);
+        }
+    }
+
+    private boolean isCleared() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i) && !isZero(slotOffset(i), slotOffset(i) + tupleSize))
+                return false;
+        }
+        return isZero(slotOffset(numSlots), buf.capacity());
+    }
+
+    private boolean isZero(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies a shared, read-only page image onto the heap before the page is
+     * first modified. Tuples handed out so far are detached, since the bytes
+     * they view may change once the page is written back.
+     */
+    private synchronized void own() {
+        if (!buf.isReadOnly())
+            return;
+        for (Tuple t : tuples) {
+            if (t instanceof TupleView)
+                ((TupleView) t).detach();
+        }
+        buf = ByteBuffer.wrap(getPageData());
+    }
+
+    private static byte[] copyOf(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
     }
 
     /**
@@ -92,6 +187,8 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null)
+                return wrap(pid, getPageData());
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -101,10 +198,24 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents the before image. The image is only copied
+     * when the page is first modified afterwards, so unmodified pages never
+     * carry a second copy of their bytes.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** Called before every change of the page image. */
+    private void saveBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
         }
     }
 
@@ -116,37 +227,46 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    private int slotOffset(int slot) {
+        return headerSize + slot * tupleSize;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Decodes a single field of the tuple in the specified slot straight from
+     * the page bytes, without decoding the rest of the tuple.
+     *
+     * @param slot the slot of the tuple; must be in use
+     * @param field the index of the field in the TupleDesc of the table
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    public Field getField(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null)
+            return t.getField(field);
+        return td.getFieldType(field).parse(buf, slotOffset(slot) + fieldOffsets[field]);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /**
+     * Reads an int field of the tuple in the specified slot without
+     * allocating a Field.
+     */
+    public int getInt(int slot, int field) {
+        return buf.getInt(slotOffset(slot) + fieldOffsets[field]);
+    }
 
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     * The tuple is a {@link TupleView} over the page bytes; its fields are
+     * decoded only when they are accessed.
+     */
+    public Tuple getTuple(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = new TupleView(td, buf, slotOffset(slot), fieldOffsets);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
         return t;
     }
 
@@ -162,64 +282,41 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        byte[] bytes = new byte[b.capacity()];
+        b.get(bytes);
+        return bytes;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Returns true if the image of this page lives in a frame of a
+     * {@link FrameArena}.
+     */
+    boolean hasFrame() {
+        return frame != null;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Moves the image of this page from its arena frame onto the heap and
+     * gives up the frame, so the page (and the tuples it handed out) stay
+     * valid after the frame is reused. Called by the buffer pool once the
+     * page is out of the pool and no transaction holds a lock on it.
+     *
+     * @return the frame, to be given back to its arena, or null if the page
+     *         has none
+     */
+    synchronized ByteBuffer releaseFrame() {
+        ByteBuffer f = frame;
+        if (f == null)
+            return null;
+        for (Tuple t : tuples) {
+            if (t instanceof TupleView)
+                ((TupleView) t).detach();
         }
-
-        return baos.toByteArray();
+        buf = ByteBuffer.wrap(getPageData());
+        frame = null;
+        return f;
     }
 
     /**
@@ -232,8 +329,69 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HeapPage of a table with the specified page size.
+     *
+     * @see #createEmptyPageData()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /**
+     * Returns the number of tuple slots on a page of a table with the
+     * specified TupleDesc and the default page size.
+     */
+    public static int getNumSlots(TupleDesc td) {
+        return getNumSlots(td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of tuple slots on a page of a table with the
+     * specified TupleDesc and page size.
+     */
+    public static int getNumSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Static method to generate the byte array of a page holding the specified
+     * tuples in its first slots. Used by bulk loading to build whole pages
+     * without going through HeapPage objects. The tuples are updated to reflect
+     * that they are now stored on the page with the specified id.
+     *
+     * @param pid the id of the page the data is for
+     * @param td the TupleDesc of the table
+     * @param tuples the tuples to store; at most getNumSlots(td, page size) of them
+     * @return The returned ByteArray.
+     */
+    public static byte[] createPageData(HeapPageId pid, TupleDesc td, List<Tuple> tuples) throws IOException {
+        int pageSize = Database.getCatalog().getPageSize(pid.getTableId());
+        int numSlots = getNumSlots(td, pageSize);
+        int headerSize = (numSlots + 7) / 8;
+        if (tuples.size() > numSlots)
+            throw new IllegalArgumentException("too many tuples for one page");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        byte[] header = new byte[headerSize];
+        for (int i = 0; i < tuples.size(); i++)
+            header[i / 8] |= 1 << (i % 8);
+        dos.write(header);
+
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            t.setRecordId(new RecordId(pid, i));
+        }
+        dos.write(new byte[pageSize - headerSize - tuples.size() * td.getSize()]);
+        dos.flush();
+        return baos.toByteArray();
     }
 
     /**
@@ -253,7 +411,16 @@ public class HeapPage implements Page {
             throw new DbException("tried to delete tuple on invalid page or table");
         if (!isSlotUsed(rid.tupleno()))
             throw new DbException("tried to delete null tuple.");
+        saveBeforeImage();
+        own();
         markSlotUsed(rid.tupleno(), false);
+        // views must keep their values once the slot bytes are cleared
+        if (tuples[rid.tupleno()] instanceof TupleView)
+            ((TupleView) tuples[rid.tupleno()]).detach();
+        if (t instanceof TupleView)
+            ((TupleView) t).detach();
+        tuples[rid.tupleno()] = null;
+        clear(slotOffset(rid.tupleno()), slotOffset(rid.tupleno()) + tupleSize);
         t.setRecordId(null);
     }
 
@@ -270,6 +437,9 @@ public class HeapPage implements Page {
         if(!t.getTupleDesc().equals(this.td)) throw new DbException("TupleDesc not match");
         for(int i = 0; i < numSlots; ++i){
             if(!isSlotUsed(i)){
+                saveBeforeImage();
+                own();
+                writeTuple(i, t);
                 markSlotUsed(i, true);
                 tuples[i] = t;
                 t.setRecordId(new RecordId(this.pid, i));
@@ -279,6 +449,21 @@ public class HeapPage implements Page {
         throw new DbException("No empty slot!");
     }
 
+    private void writeTuple(int slot, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e);
+        }
+        ByteBuffer b = buf.duplicate();
+        b.position(slotOffset(slot));
+        b.put(baos.toByteArray(), 0, tupleSize);
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -299,25 +484,24 @@ public class HeapPage implements Page {
         return this.dirtier;
     }
 
+    /**
+     * Returns the total number of tuple slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int numCounter = 0;
-        int emptyCounter = 0;
-        for (int num : header) {
-            for (int j = 0; j < 8; ++j) {
-                if ((num & 1) == 0) emptyCounter += 1;
-                numCounter += 1;
-                num >>= 1;
-                if (numCounter == numSlots)
-                    break;
-            }
-            if (numCounter == numSlots)
-                break;
-        }
-        return emptyCounter;
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++)
+            used += Integer.bitCount(buf.get(i) & 0xFF);
+        for (int i = numSlots / 8 * 8; i < numSlots; i++)
+            if (isSlotUsed(i)) used += 1;
+        return numSlots - used;
     }
 
     /**
@@ -327,7 +511,21 @@ public class HeapPage implements Page {
         // some code goes here
         int p = i / 8;
         int q = i % 8;
-        return ((header[p] >> q) & 1) == 1;
+        return ((buf.get(p) >> q) & 1) == 1;
+    }
+
+    /**
+     * Returns the slots of this page in use as of now, slot i being bit i.
+     */
+    public BitSet getUsedSlots() {
+        byte[] used = new byte[headerSize];
+        ByteBuffer header = buf.duplicate();
+        header.clear();
+        header.get(used);
+        BitSet slots = BitSet.valueOf(used);
+        // the padding bits of the last header byte are no slots
+        slots.clear(numSlots, headerSize * 8);
+        return slots;
     }
 
     /**
@@ -339,10 +537,12 @@ public class HeapPage implements Page {
         int headerbit = i % 8;
         int headerbyte = (i - headerbit) / 8;
 
+        byte b = buf.get(headerbyte);
         if(value)
-            header[headerbyte] |= 1 << headerbit;
+            b |= 1 << headerbit;
         else
-            header[headerbyte] &= (0xFF ^ (1 << headerbit));
+            b &= (0xFF ^ (1 << headerbit));
+        buf.put(headerbyte, b);
     }
 
     /**
@@ -353,13 +553,39 @@ public class HeapPage implements Page {
 
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> usedTuples = new ArrayList<>();
-        for(int i = 0; i < numSlots; ++i){
-            if(isSlotUsed(i))
-                usedTuples.add(tuples[i]);
-        }
-        return usedTuples.iterator();
+        // only the slot bitmap is copied; tuples are decoded as the iterator
+        // reaches them
+        final byte[] used = new byte[headerSize];
+        ByteBuffer header = buf.duplicate();
+        header.clear();
+        header.get(used);
+        return new Iterator<Tuple>() {
+            private int slot = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && (((used[from / 8] >> (from % 8)) & 1) == 0 || !isSlotUsed(from)))
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                slot = advance(slot);
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(slot++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
-
@@ -110,12 +110,7 @@ public class Join extends Operator {
      */
 
     private Tuple mergeTuple(TupleDesc td, Tuple a, Tuple b){
-        Tuple ret = new Tuple(td);
-        int nf1 = a.getTupleDesc().numFields();
-        int nf2 = b.getTupleDesc().numFields();
-        for (int i = 0; i < nf1; ++i) ret.setField(i, a.getField(i));
-        for (int i = nf1; i < nf1 + nf2; ++i) ret.setField(i, b.getField(i - nf1));
-        return ret;
+        return new ConcatTuple(td, a, b);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
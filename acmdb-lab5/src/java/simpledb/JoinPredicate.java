@@ -44,6 +44,8 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)
+            return IntField.compare(this.op, t1.getInt(field1), t2.getInt(field2));
         return t1.getField(field1).compare(this.op, t2.getField(field2));
     }
     
@@ -2,97 +2,552 @@ package simpledb;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * LockManager grants the locks of transactions and keeps them from
+ * deadlocking, in one of the ways of {@link DeadlockPolicy}.
+ * <p>
+ * Locks form a hierarchy: a table, its pages, and the tuples of each page.
+ * A page or tuple is locked after its parents are locked in the matching
+ * intention mode (see {@link LockMode}), so a table lock conflicts with the
+ * page and tuple locks of other transactions on the table without looking
+ * at them. A tuple writer locks its page SIX rather than IX: a transaction
+ * that aborts is undone by restoring the before images of whole pages, so
+ * only one transaction may write a page at a time, while others still read
+ * its other tuples under IS. Once a transaction holds more page and tuple
+ * locks on a table than the escalation threshold, they are replaced by one
+ * table lock; the threshold is taken from the system property
+ * simpledb.LockEscalation.
+ * <p>
+ * The deadlock policy is
+ * taken from the system property simpledb.DeadlockPolicy, e.g.
+ * -Dsimpledb.DeadlockPolicy=WAIT_DIE, and the timeout of the TIMEOUT policy
+ * from simpledb.LockTimeout, in milliseconds; both can be changed at run
+ * time.
+ */
 public class LockManager {
+    private static final long[] NO_EDGES = new long[0];
+
+    /** The default number of page and tuple locks on a table escalated to a table lock. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /** The default time a transaction waits for a lock under TIMEOUT, in ms. */
+    public static final long DEFAULT_LOCK_TIMEOUT = 1000;
+
+    /**
+     * How deadlocks are handled. The prevention policies compare the ages of
+     * transactions by {@link TransactionId#getId()}, which grows with every
+     * new transaction: a smaller id is an older transaction.
+     */
+    public enum DeadlockPolicy {
+        /**
+         * Waiters record what they wait for in a waits-for graph, and the
+         * youngest transaction of a cycle is aborted. The default.
+         */
+        DETECT,
+        /**
+         * A transaction waits only for younger ones; a transaction that
+         * would wait for an older one aborts.
+         */
+        WAIT_DIE,
+        /**
+         * A transaction waits only for older ones; the younger transactions
+         * an older one would wait for are wounded, and abort when they
+         * request or wait for a lock.
+         */
+        WOUND_WAIT,
+        /** A transaction that would wait for a lock aborts. */
+        NO_WAIT,
+        /** A transaction that waits longer than the lock timeout aborts. */
+        TIMEOUT
+    }
+
+    /**
+     * A waiting transaction in the waits-for graph, with the ids of the
+     * transactions it waits for.
+     */
+    private static final class Waiter {
+        final long id;
+        final PageLock lock;
+        long[] waitsFor = NO_EDGES;
+        /** Chosen to break a deadlock; aborts when it wakes up. */
+        boolean victim;
+        /** The number of the last search that visited this waiter. */
+        int mark;
+
+        Waiter(long id, PageLock lock) {
+            this.id = id;
+            this.lock = lock;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, PageLock> tableLocks;
     private final ConcurrentHashMap<PageId, PageLock> pageLocks;
+    /** Tuple locks, dropped again once no transaction holds or awaits them. */
+    private final ConcurrentHashMap<RecordId, PageLock> tupleLocks;
+    /** The number of page and tuple locks each transaction holds per table. */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, AtomicInteger>> fineLocks;
+    private volatile int escalationThreshold;
     private final ConcurrentHashMap<TransactionId, Set<PageLock>> pageLockSetOfTransaction;
-    private final ConcurrentHashMap<String, LinkedBlockingQueue<String>> dependencyGraph;
+    /** The waits-for graph, keyed by transaction id; protected by itself. */
+    private final HashMap<Long, Waiter> waiters;
+    private int searches;
+    /** The ids of the transactions wounded under WOUND_WAIT. */
+    private final Set<Long> wounded;
+    private volatile DeadlockPolicy policy;
+    private volatile long lockTimeout;
     public LockManager(){
+        this.tableLocks = new ConcurrentHashMap<Integer, PageLock>();
         this.pageLocks = new ConcurrentHashMap<PageId, PageLock>();
+        this.tupleLocks = new ConcurrentHashMap<RecordId, PageLock>();
+        this.fineLocks = new ConcurrentHashMap<>();
+        this.escalationThreshold = Integer.getInteger("simpledb.LockEscalation", DEFAULT_ESCALATION_THRESHOLD);
         this.pageLockSetOfTransaction = new ConcurrentHashMap<TransactionId, Set<PageLock>>();
-        this.dependencyGraph = new ConcurrentHashMap<>();
+        this.waiters = new HashMap<Long, Waiter>();
+        this.wounded = ConcurrentHashMap.newKeySet();
+        String policy = System.getProperty("simpledb.DeadlockPolicy");
+        this.policy = policy == null ? DeadlockPolicy.DETECT : DeadlockPolicy.valueOf(policy.toUpperCase());
+        this.lockTimeout = Long.getLong("simpledb.LockTimeout", DEFAULT_LOCK_TIMEOUT);
     }
-    public boolean lock(TransactionId transactionId, PageId pageId, Permissions perm) throws DbException,
+
+    public DeadlockPolicy getDeadlockPolicy(){
+        return this.policy;
+    }
+
+    /**
+     * Chooses how deadlocks are handled from now on; transactions already
+     * waiting keep waiting until they next wake up.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy){
+        if (policy == null)
+            throw new IllegalArgumentException("no deadlock policy");
+        this.policy = policy;
+    }
+
+    /**
+     * @return how long a transaction waits for a lock before aborting, in
+     *         ms, or 0 if it waits as long as needed (any policy but TIMEOUT)
+     */
+    public long getLockTimeout(){
+        return this.policy == DeadlockPolicy.TIMEOUT ? this.lockTimeout : 0;
+    }
+
+    /**
+     * Sets how long a transaction waits for a lock under TIMEOUT, in ms.
+     */
+    public void setLockTimeout(long millis){
+        if (millis <= 0)
+            throw new IllegalArgumentException("lock timeout must be positive: " + millis);
+        this.lockTimeout = millis;
+    }
+
+    /**
+     * @return the number of page and tuple locks a transaction may hold on
+     *         one table before they are escalated to a table lock
+     */
+    public int getEscalationThreshold(){
+        return this.escalationThreshold;
+    }
+
+    /**
+     * Sets the number of page and tuple locks a transaction may hold on one
+     * table before they are escalated to a table lock.
+     */
+    public void setEscalationThreshold(int locks){
+        if (locks <= 0)
+            throw new IllegalArgumentException("escalation threshold must be positive: " + locks);
+        this.escalationThreshold = locks;
+    }
+
+    private static <K> PageLock lockOf(ConcurrentHashMap<K, PageLock> locks, K key, LockManager lockManager){
+        PageLock lock = locks.get(key);
+        if (lock == null)
+            lock = locks.computeIfAbsent(key, k -> new PageLock(k, lockManager));
+        return lock;
+    }
+
+    /** @return true if tid holds lock in a mode covering mode */
+    private static boolean covered(PageLock lock, TransactionId tid, LockMode mode){
+        LockMode held = lock.getMode(tid);
+        return held != null && held.covers(mode);
+    }
+
+    /** @return false if the lock was retired, and so not acquired */
+    private boolean acquire(TransactionId transactionId, PageLock lock, LockMode mode) throws DbException,
             TransactionAbortedException{
-        this.pageLocks.putIfAbsent(pageId, new PageLock(pageId, this));
-        PageLock pageLock = this.pageLocks.get(pageId);
         try {
-            pageLock.acquire(transactionId, perm);
-            //System.out.println(tid_s.toString() + " aquire " + pageId.toString() + " rw");
-            pageLockSetOfTransaction.putIfAbsent(transactionId,
-                    Collections.newSetFromMap(new ConcurrentHashMap<PageLock, Boolean>()));
-            pageLockSetOfTransaction.get(transactionId).add(pageLock);
-            return true;
+            if (!lock.acquire(transactionId, mode))
+                return false;
         }catch (InterruptedException e){
             throw new DbException("Interrupted.");
         }
+        held(transactionId, lock);
+        return true;
+    }
 
+    private void held(TransactionId transactionId, PageLock lock){
+        pageLockSetOfTransaction.putIfAbsent(transactionId,
+                Collections.newSetFromMap(new ConcurrentHashMap<PageLock, Boolean>()));
+        pageLockSetOfTransaction.get(transactionId).add(lock);
     }
 
-    private boolean dfsDeadLockDetection(String st, Stack<String> dfsStack, HashSet<String> visited){
-        visited.add(st);
-        if(this.dependencyGraph.containsKey(st)) {
-            LinkedBlockingQueue<String> neighbour = this.dependencyGraph.getOrDefault(st, new LinkedBlockingQueue<String>());
-            for (String s : neighbour) {
-                if (dfsStack.contains(s))
-                    return true;
-                if (!visited.contains(s)) {
-                    dfsStack.push(st);
-                    if (dfsDeadLockDetection(s, dfsStack, visited))
-                        return true;
-                    dfsStack.pop();
-                }
+    /**
+     * Locks a page, after locking its table in the matching intention mode;
+     * nothing is locked if the transaction holds a table lock covering the
+     * request.
+     */
+    public boolean lock(TransactionId transactionId, PageId pageId, Permissions perm) throws DbException,
+            TransactionAbortedException{
+        if (this.wounded.contains(transactionId.getId()))
+            throw new TransactionAbortedException();
+        LockMode mode = LockMode.of(perm);
+        PageLock tableLock = lockOf(this.tableLocks, pageId.getTableId(), this);
+        if (covered(tableLock, transactionId, mode))
+            return true;
+        acquire(transactionId, tableLock, mode.intention());
+        PageLock pageLock = lockOf(this.pageLocks, pageId, this);
+        boolean fresh = !pageLock.holdLocks(transactionId);
+        acquire(transactionId, pageLock, mode);
+        if (fresh)
+            countFineLock(transactionId, pageId.getTableId());
+        return true;
+    }
+
+    /**
+     * Locks a whole table, and so every page and tuple of it; a transaction
+     * holding page or tuple locks of the table for writing gets SIX for
+     * READ_ONLY.
+     */
+    public boolean lockTable(TransactionId transactionId, int tableId, Permissions perm) throws DbException,
+            TransactionAbortedException{
+        if (this.wounded.contains(transactionId.getId()))
+            throw new TransactionAbortedException();
+        acquire(transactionId, lockOf(this.tableLocks, tableId, this), LockMode.of(perm));
+        return true;
+    }
+
+    /** @return the mode a page is locked in before locking its tuples with perm */
+    private static LockMode tuplePageMode(Permissions perm){
+        // one writer per page, since aborts restore whole pages
+        return perm.equals(Permissions.READ_WRITE) ? LockMode.SIX : LockMode.IS;
+    }
+
+    /**
+     * Locks a page for a transaction that goes on to lock the tuples it
+     * reads or writes on the page: IS for READ_ONLY, SIX for READ_WRITE,
+     * after locking its table in the matching intention mode. Nothing is
+     * locked if a table or page lock covering the request is held.
+     */
+    public boolean lockPageForTuples(TransactionId transactionId, PageId pageId, Permissions perm)
+            throws DbException, TransactionAbortedException{
+        if (this.wounded.contains(transactionId.getId()))
+            throw new TransactionAbortedException();
+        LockMode mode = tuplePageMode(perm);
+        PageLock tableLock = lockOf(this.tableLocks, pageId.getTableId(), this);
+        if (covered(tableLock, transactionId, LockMode.of(perm)))
+            return true;
+        acquire(transactionId, tableLock, mode.intention());
+        PageLock pageLock = lockOf(this.pageLocks, pageId, this);
+        if (covered(pageLock, transactionId, mode))
+            return true;
+        boolean fresh = !pageLock.holdLocks(transactionId);
+        acquire(transactionId, pageLock, mode);
+        if (fresh)
+            countFineLock(transactionId, pageId.getTableId());
+        return true;
+    }
+
+    /**
+     * Locks a tuple, after locking its page with
+     * {@link #lockPageForTuples}; nothing more is locked once a table or
+     * page lock covering the request is held.
+     */
+    public boolean lockTuple(TransactionId transactionId, RecordId recordId, Permissions perm) throws DbException,
+            TransactionAbortedException{
+        lockPageForTuples(transactionId, recordId.getPageId(), perm);
+        LockMode mode = LockMode.of(perm);
+        int tableId = recordId.getPageId().getTableId();
+        if (covered(lockOf(this.tableLocks, tableId, this), transactionId, mode))
+            return true;
+        if (covered(lockOf(this.pageLocks, recordId.getPageId(), this), transactionId, mode))
+            return true;
+        while (true) {
+            PageLock tupleLock = lockOf(this.tupleLocks, recordId, this);
+            boolean fresh = !tupleLock.holdLocks(transactionId);
+            // a retired lock is on its way out of the table; look it up again
+            if (acquire(transactionId, tupleLock, mode)) {
+                if (fresh)
+                    countFineLock(transactionId, tableId);
+                return true;
             }
+        }
+    }
+
+    /** Drops a released tuple lock once no transaction holds or waits for it. */
+    private void dropTupleLock(PageLock lock){
+        if (lock.getResource() instanceof RecordId && lock.retire())
+            this.tupleLocks.remove(lock.getResource(), lock);
+    }
+
+    /**
+     * Acquires the lock only if it can be granted without waiting. Used by
+     * read-ahead, on a thread other than the transaction's own, so the lock
+     * is not counted towards escalation, which would release the locks of
+     * the transaction under its feet.
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryLock(TransactionId transactionId, PageId pageId, Permissions perm){
+        return tryLock(transactionId, pageId, LockMode.of(perm));
+    }
+
+    /**
+     * Acquires the lock of a page in the specified mode, e.g. IS for a scan
+     * that locks the tuples it reads, only if it can be granted without
+     * waiting. The lock is not counted towards escalation either.
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryLock(TransactionId transactionId, PageId pageId, LockMode mode){
+        PageLock tableLock = lockOf(this.tableLocks, pageId.getTableId(), this);
+        if (covered(tableLock, transactionId, mode))
+            return true;
+        if (!tableLock.tryAcquire(transactionId, mode.intention()))
             return false;
-        }else return false;
+        held(transactionId, tableLock);
+        PageLock pageLock = lockOf(this.pageLocks, pageId, this);
+        if(!pageLock.tryAcquire(transactionId, mode))
+            return false;
+        held(transactionId, pageLock);
+        return true;
+    }
+
+    /**
+     * Counts a new page or tuple lock of a transaction, and escalates its
+     * locks on the table once there are more than the escalation threshold.
+     */
+    private void countFineLock(TransactionId transactionId, int tableId){
+        AtomicInteger count = this.fineLocks.computeIfAbsent(transactionId, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tableId, t -> new AtomicInteger());
+        if (count.incrementAndGet() > this.escalationThreshold)
+            escalate(transactionId, tableId, count);
     }
 
-    public boolean updateEdge(TransactionId tid, HashSet<TransactionId> toAdd){
-        String tid_s = "trans_" + tid.hashCode();
-        this.dependencyGraph.putIfAbsent(tid_s, new LinkedBlockingQueue<>());
-        LinkedBlockingQueue<String> holder = this.dependencyGraph.get(tid_s);
-        for(TransactionId t: toAdd){
-            String s = "trans_" + t.hashCode();
-            if(!holder.contains(s))
-                holder.add(s);
+    /**
+     * Replaces the page and tuple locks of a transaction on a table by a
+     * table lock: S if it only reads the table, X otherwise. Escalation
+     * does not wait: if another transaction holds a conflicting lock on the
+     * table, the fine-grained locks are kept, and escalation is tried again
+     * with the next one.
+     */
+    private void escalate(TransactionId transactionId, int tableId, AtomicInteger count){
+        PageLock tableLock = this.tableLocks.get(tableId);
+        LockMode held = tableLock.getMode(transactionId);
+        LockMode mode = held == null || held == LockMode.IS ? LockMode.S : LockMode.X;
+        if (!tableLock.tryAcquire(transactionId, mode))
+            return;
+        Set<PageLock> locks = this.pageLockSetOfTransaction.get(transactionId);
+        for (Iterator<PageLock> it = locks.iterator(); it.hasNext(); ) {
+            PageLock lock = it.next();
+            if (tableOf(lock.getResource()) == tableId) {
+                it.remove();
+                lock.releaseAll(transactionId);
+                dropTupleLock(lock);
+            }
         }
-        HashSet<String> visited = new HashSet<String>();
-        for(String s : this.dependencyGraph.keySet()){
-            if(!visited.contains(s)) {
-                if (dfsDeadLockDetection(s, new Stack<>(), visited)) return true;
+        count.set(0);
+    }
+
+    /** @return the table of a page or tuple lock's resource, or -1 for a table */
+    private static int tableOf(Object resource){
+        if (resource instanceof PageId)
+            return ((PageId) resource).getTableId();
+        if (resource instanceof RecordId)
+            return ((RecordId) resource).getPageId().getTableId();
+        return -1;
+    }
+
+    /**
+     * Searches the paths leading from a waiter back to it, marking the
+     * waiters visited with the number of the search.
+     * @return true if a path was found; path then holds its waiters
+     */
+    private boolean findCycle(Waiter w, long target, ArrayList<Waiter> path){
+        path.add(w);
+        for (long next : w.waitsFor) {
+            if (next == target)
+                return true;
+            Waiter n = this.waiters.get(next);
+            if (n == null || n.mark == this.searches)
+                continue;
+            n.mark = this.searches;
+            if (findCycle(n, target, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /**
+     * Records the transactions a waiting transaction waits for, replacing
+     * what it waited for before, and applies the deadlock policy.
+     * <p>
+     * Under DETECT this checks whether the new edges close a cycle. Any
+     * cycle goes through the edges just recorded, so only the paths leading
+     * back to the waiting transaction are searched, and each waiter is
+     * visited at most once; updates are serialized so two transactions
+     * closing a cycle together cannot both miss it. The youngest transaction
+     * of a cycle is the one aborted: if that is another waiter, it is marked
+     * as a victim and woken up, and the caller goes on waiting. Under
+     * WOUND_WAIT the younger transactions waited for are wounded, and woken
+     * up if they are waiting.
+     * @param lock the lock the transaction waits for, woken up if the
+     *             transaction is chosen as a victim
+     * @return true if the transaction must abort
+     */
+    public boolean waitsFor(TransactionId tid, PageLock lock, Set<TransactionId> holders){
+        DeadlockPolicy policy = this.policy;
+        long id = tid.getId();
+        long[] edges = new long[holders.size()];
+        int i = 0;
+        for (TransactionId t : holders)
+            edges[i++] = t.getId();
+        if (policy == DeadlockPolicy.NO_WAIT && edges.length > 0)
+            return true;
+        if (policy == DeadlockPolicy.WAIT_DIE)
+            for (long e : edges)
+                if (e < id)
+                    return true;
+        ArrayList<PageLock> wake = new ArrayList<PageLock>();
+        synchronized (this.waiters){
+            Waiter w = this.waiters.get(id);
+            if (w == null || w.lock != lock) {
+                w = new Waiter(id, lock);
+                this.waiters.put(id, w);
+            }
+            if (w.victim || this.wounded.contains(id))
+                return true;
+            w.waitsFor = edges;
+            if (policy == DeadlockPolicy.WOUND_WAIT) {
+                for (long e : edges) {
+                    if (e > id && this.wounded.add(e)) {
+                        Waiter younger = this.waiters.get(e);
+                        if (younger != null)
+                            wake.add(younger.lock);
+                    }
+                }
+            } else if (policy == DeadlockPolicy.DETECT && edges.length > 0) {
+                ArrayList<Waiter> path = new ArrayList<Waiter>();
+                this.searches++;
+                w.mark = this.searches;
+                if (findCycle(w, id, path)) {
+                    Waiter victim = w;
+                    for (Waiter p : path)
+                        if (p.id > victim.id)
+                            victim = p;
+                    if (victim == w)
+                        return true;
+                    // it no longer waits for anything, so no other cycle picks it too
+                    victim.victim = true;
+                    victim.waitsFor = NO_EDGES;
+                    wake.add(victim.lock);
+                }
             }
         }
+        for (PageLock l : wake)
+            l.wake();
         return false;
     }
 
+    /**
+     * @return true if the transaction was chosen to break a deadlock while
+     *         it waited, or was wounded, and must abort
+     */
+    boolean isVictim(TransactionId tid){
+        if (this.wounded.contains(tid.getId()))
+            return true;
+        synchronized (this.waiters){
+            Waiter w = this.waiters.get(tid.getId());
+            return w != null && w.victim;
+        }
+    }
 
+    /** Takes a transaction that no longer waits out of the waits-for graph. */
     public void removeTrans(TransactionId trans){
-        String s = "trans_" + trans.hashCode();
-        synchronized (this.dependencyGraph){
-            this.dependencyGraph.remove(s);
+        synchronized (this.waiters){
+            this.waiters.remove(trans.getId());
         }
     }
 
-
     public boolean unlock(TransactionId transactionId, PageId pageId){
         if(this.pageLocks.containsKey(pageId)){
             PageLock pageLock = this.pageLocks.get(pageId);
+            ConcurrentHashMap<Integer, AtomicInteger> counts = this.fineLocks.get(transactionId);
+            if (counts != null && pageLock.holdLocks(transactionId)) {
+                AtomicInteger count = counts.get(pageId.getTableId());
+                // locks taken by tryLock were never counted
+                if (count != null)
+                    count.updateAndGet(c -> Math.max(0, c - 1));
+            }
             return pageLock.releaseAll(transactionId);
         }else return false;
     }
 
+    /**
+     * @return true if the transaction holds a lock on the page, or on its
+     *         table in a mode that lets it read the page
+     */
     public boolean holdsLock(TransactionId transactionId, PageId pageId){
-        return this.pageLocks.containsKey(pageId) && this.pageLocks.get(pageId).holdLocks(transactionId);
+        if (this.pageLocks.containsKey(pageId) && this.pageLocks.get(pageId).holdLocks(transactionId))
+            return true;
+        PageLock tableLock = this.tableLocks.get(pageId.getTableId());
+        return tableLock != null && covered(tableLock, transactionId, LockMode.S);
+    }
+
+    /**
+     * @return the mode the transaction holds the lock of a table in, or null
+     */
+    public LockMode getTableMode(TransactionId transactionId, int tableId){
+        PageLock tableLock = this.tableLocks.get(tableId);
+        return tableLock == null ? null : tableLock.getMode(transactionId);
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the tuple, or on its
+     *         page or table in a mode that lets it read the tuple
+     */
+    public boolean holdsLock(TransactionId transactionId, RecordId recordId){
+        PageLock tupleLock = this.tupleLocks.get(recordId);
+        if (tupleLock != null && tupleLock.holdLocks(transactionId))
+            return true;
+        PageLock pageLock = this.pageLocks.get(recordId.getPageId());
+        if (pageLock != null && covered(pageLock, transactionId, LockMode.S))
+            return true;
+        PageLock tableLock = this.tableLocks.get(recordId.getPageId().getTableId());
+        return tableLock != null && covered(tableLock, transactionId, LockMode.S);
+    }
+
+    /**
+     * @return true if some transaction holds a lock on the specified page,
+     *         or a lock on its table that lets it read the page
+     */
+    public boolean isLocked(PageId pageId){
+        PageLock pageLock = this.pageLocks.get(pageId);
+        if (pageLock != null && pageLock.isHeld())
+            return true;
+        PageLock tableLock = this.tableLocks.get(pageId.getTableId());
+        return tableLock != null && tableLock.isHeld(LockMode.S);
     }
 
     public void transactionFinished(TransactionId transactionId){
         if (this.pageLockSetOfTransaction.containsKey(transactionId)) {
             for (PageLock p : this.pageLockSetOfTransaction.get(transactionId)) {
                 p.releaseAll(transactionId);
+                dropTupleLock(p);
             }
         }
         this.pageLockSetOfTransaction.remove(transactionId);
+        this.fineLocks.remove(transactionId);
+        this.wounded.remove(transactionId.getId());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package simpledb;
+
+/**
+ * The modes of the locks of the lock hierarchy: a table, its pages and the
+ * tuples of each page. S and X lock a resource and everything under it;
+ * the intention modes IS and IX are taken on the parents of a resource
+ * before locking it S or X, and SIX is S on a resource plus IX, for a
+ * transaction that reads all of it and writes parts of it, or that writes
+ * tuples of a page, which only one transaction may do at a time.
+ *
+ * @see LockManager
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    /**
+     * @return the mode a page or tuple request with the specified
+     *         permissions is granted in
+     */
+    public static LockMode of(Permissions perm) {
+        return perm.equals(Permissions.READ_WRITE) ? X : S;
+    }
+
+    /**
+     * @return the intention mode the parents of a resource are locked in
+     *         before locking it in this mode
+     */
+    public LockMode intention() {
+        return this == IS || this == S ? IS : IX;
+    }
+
+    /**
+     * @return true if two transactions may hold a resource in this mode and
+     *         the specified one at the same time
+     */
+    public boolean compatible(LockMode other) {
+        switch (this) {
+        case IS:
+            return other != X;
+        case IX:
+            return other == IS || other == IX;
+        case S:
+            return other == IS || other == S;
+        case SIX:
+            return other == IS;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return true if holding this mode grants everything the specified
+     *         mode does
+     */
+    public boolean covers(LockMode other) {
+        switch (this) {
+        case IS:
+            return other == IS;
+        case IX:
+            return other == IS || other == IX;
+        case S:
+            return other == IS || other == S;
+        case SIX:
+            return other != X;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * @return the weakest mode covering both this mode and the specified one,
+     *         which a transaction holding one and requesting the other gets
+     */
+    public LockMode join(LockMode other) {
+        if (covers(other))
+            return this;
+        if (other.covers(this))
+            return other;
+        return SIX;
+    }
+}
@@ -138,6 +138,14 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Return true if the specified transaction has written log records
+        and has not committed or aborted yet
+        @param tid The transaction to check
+    */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -207,6 +215,10 @@ public class LogFile {
            after page data
            start offset
         */
+        // pages written before commit (see BufferPool#setSteal) may log for
+        // transactions that never logged a BEGIN record
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -265,17 +277,31 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have several constructors; recovery needs (PageId, byte[]),
+            // or (PageId, byte[], key field) for B+ tree pages
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class)
+                    pageConst = c;
+                if (params.length == 3 && params[0].isInstance(pid) && params[1] == byte[].class
+                        && params[2] == int.class && pageConst == null)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
             raf.read(pageData); //read before image
 
-            Object[] pageArgs = new Object[2];
+            Object[] pageArgs = new Object[pageConst.getParameterTypes().length];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
+            if (pageArgs.length == 3)
+                pageArgs[2] = ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -316,7 +342,9 @@ public class LogFile {
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record. The ids of the
+        pages in the buffer pool are dumped next to the log as well (see
+        BufferPoolDump). */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
@@ -354,6 +382,13 @@ public class LogFile {
             }
         }
 
+        // remember the cached pages so the next start can warm up the pool
+        try {
+            BufferPoolDump.dump(Database.getBufferPool(), BufferPoolDump.fileFor(logFile));
+        } catch (IOException e) {
+            System.out.println("Could not dump the buffer pool: " + e.getMessage());
+        }
+
         logTruncate();
     }
 
@@ -399,6 +434,7 @@ public class LogFile {
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
@@ -410,6 +446,9 @@ public class LogFile {
 
                 switch (type) {
                 case UPDATE_RECORD:
+                    // transactions without a BEGIN record start with an update
+                    if (Long.valueOf(oldStart).equals(tidToFirstLogRecord.get(record_tid)))
+                        tidToFirstLogRecord.put(record_tid, newStart);
                     Page before = readPageData(raf);
                     Page after = readPageData(raf);
 
@@ -467,6 +506,43 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    return; // nothing of this transaction reached the log
+
+                // the first before image of each page is its committed state
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                            beforeImages.put(before.getId(), before);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                for (Page before : beforeImages.values()) {
+                    Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(before.getId());
+                }
+                // drop the transaction's dirty pages while the buffer pool is
+                // still locked, so none of them is written back after the undo
+                try {
+                    Database.getBufferPool().discardPages(tid);
+                } catch (DbException e) {
+                    throw new IOException("could not discard the pages of " + tid + ": " + e.getMessage());
+                }
             }
         }
     }
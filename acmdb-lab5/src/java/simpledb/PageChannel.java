@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageChannel is the page I/O layer shared by the DbFile implementations.
+ * It keeps a single FileChannel open for the lifetime of the DbFile and
+ * performs positional reads and writes on it, so a page miss costs exactly
+ * one pread/pwrite instead of an open, a seek (or a skip) and a leaked
+ * file descriptor.
+ * <p>
+ * The channel is opened lazily on first use. Positional I/O on a FileChannel
+ * does not touch the channel position, so concurrent readers and writers of
+ * different pages never need to synchronize with each other.
+ * <p>
+ * The channel can also serve reads from read-only memory-mapped regions of
+ * the file (see {@link #readMapped}). Regions are mapped lazily, grow as the
+ * file is extended, and are dropped by {@link #close}. Regions are never
+ * unmapped explicitly: pages built over a mapped view keep it, and the
+ * mapping goes away once the garbage collector finds no view left.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    /**
+     * Callback used by {@link #readMapped} to build a page from a view of the
+     * mapped bytes. The view stays valid for as long as it is referenced,
+     * and reflects later writes to the same bytes of the file.
+     */
+    public interface MappedReader<T> {
+        T read(ByteBuffer data) throws IOException;
+    }
+
+    private final File file;
+    private volatile FileChannel channel;
+
+    private final ReentrantReadWriteLock mapLock;
+    private final ArrayList<MappedByteBuffer> regions;
+    private long regionSize;
+
+    /**
+     * Creates a page channel over the specified file. The file is not opened
+     * until the first read, write or size request.
+     *
+     * @param f the file backing the DbFile
+     */
+    public PageChannel(File f) {
+        this.file = f;
+        this.mapLock = new ReentrantReadWriteLock();
+        this.regions = new ArrayList<MappedByteBuffer>();
+        this.regionSize = 0;
+    }
+
+    /**
+     * Returns the File this channel reads and writes.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null || !fc.isOpen()) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null || !fc.isOpen()) {
+                    fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Reads up to data.length bytes starting at the specified file offset.
+     * Bytes past the end of the file are left untouched, so reading a page
+     * that has not been written yet yields the caller's (zeroed) buffer.
+     *
+     * @param data the buffer to fill
+     * @param position the file offset to read from
+     * @return the number of bytes actually read
+     */
+    public int read(byte[] data, long position) throws IOException {
+        return read(ByteBuffer.wrap(data), position);
+    }
+
+    /**
+     * Reads into the remaining bytes of a buffer, e.g. a direct page frame,
+     * starting at the specified file offset. Bytes past the end of the file
+     * are left untouched.
+     *
+     * @param buf the buffer to fill; its position is advanced
+     * @param position the file offset to read from
+     * @return the number of bytes actually read
+     */
+    public int read(ByteBuffer buf, long position) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n;
+            try {
+                n = channel().read(buf, position + total);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed underneath us by close(); reopen and carry on
+                continue;
+            }
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the whole buffer at the specified file offset, extending the
+     * file if needed.
+     *
+     * @param data the bytes to write
+     * @param position the file offset to write at
+     */
+    public void write(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int total = 0;
+        while (buf.hasRemaining()) {
+            try {
+                total += channel().write(buf, position + total);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed underneath us by close(); reopen and carry on
+            }
+        }
+    }
+
+    /**
+     * Appends the buffer to the end of the file.
+     *
+     * @param data the bytes to append
+     * @return the file offset at which the data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = size();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Returns the current length of the file in bytes. This is answered from
+     * the already-open descriptor, so it sees pages appended by other writers
+     * without resolving the path again.
+     */
+    public long size() throws IOException {
+        if (channel == null && !file.exists())
+            return 0;
+        return channel().size();
+    }
+
+    /**
+     * Truncates the file to the specified length. Pages past the new end must
+     * no longer be in use, since views of their mapped bytes become invalid.
+     */
+    public synchronized void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /**
+     * Forces any buffered writes to the storage device.
+     */
+    public void force() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            fc.force(false);
+    }
+
+    /**
+     * Reads length bytes at the specified file offset through a read-only
+     * memory mapping of the file, without copying them into a new array.
+     * The file is mapped in regions of regionSize bytes; a region is
+     * remapped when the file has grown past the end of its current mapping.
+     * Callers should pick a regionSize that is a multiple of their page size
+     * so that no page straddles two regions.
+     *
+     * @param position the file offset of the page
+     * @param length the length of the page
+     * @param regionSize the size of a mapped region
+     * @param reader the callback that consumes the mapped bytes
+     * @return the value produced by reader, or null if the requested range
+     *         lies past the end of the file
+     */
+    public <T> T readMapped(long position, int length, long regionSize, MappedReader<T> reader)
+            throws IOException {
+        int idx = (int) (position / regionSize);
+        int off = (int) (position % regionSize);
+
+        mapLock.readLock().lock();
+        try {
+            if (this.regionSize == regionSize) {
+                MappedByteBuffer region = idx < regions.size() ? regions.get(idx) : null;
+                if (region != null && region.capacity() >= off + length)
+                    return reader.read(slice(region, off, length));
+            }
+        } finally {
+            mapLock.readLock().unlock();
+        }
+
+        // the region is not mapped yet, or the file grew past its mapping
+        mapLock.writeLock().lock();
+        try {
+            if (this.regionSize != regionSize) {
+                regions.clear();
+                this.regionSize = regionSize;
+            }
+            long size = size();
+            if (position + length > size)
+                return null;
+            while (regions.size() <= idx)
+                regions.add(null);
+            MappedByteBuffer region = regions.get(idx);
+            if (region == null || region.capacity() < off + length) {
+                long start = idx * regionSize;
+                long len = Math.min(regionSize, size - start);
+                region = channel().map(FileChannel.MapMode.READ_ONLY, start, len);
+                regions.set(idx, region);
+            }
+            return reader.read(slice(region, off, length));
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    private static ByteBuffer slice(MappedByteBuffer region, int off, int length) {
+        ByteBuffer view = region.duplicate();
+        view.position(off);
+        view.limit(off + length);
+        return view.slice();
+    }
+
+    /**
+     * Drops every mapped region and closes the underlying channel. The
+     * channel (and any mapping) is transparently reopened if the file is
+     * accessed again.
+     */
+    public void close() throws IOException {
+        // always take the map lock before the monitor, as readMapped does
+        mapLock.writeLock().lock();
+        try {
+            regions.clear();
+            synchronized (this) {
+                FileChannel fc = channel;
+                channel = null;
+                if (fc != null)
+                    fc.close();
+            }
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+}
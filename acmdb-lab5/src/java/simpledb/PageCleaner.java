@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner is the background dirty-page writer of a BufferPool. While it
+ * runs, a daemon thread periodically writes back the dirty pages that the
+ * replacement policy of each shard would evict soon (the coldest quarter of
+ * the shard), so that by the time eviction reaches them they are clean and
+ * a {@link BufferPool#getPage} miss almost never has to write a page itself.
+ * <p>
+ * The cleaner only writes while the buffer pool runs under STEAL, and pages
+ * are written back exactly as a STEAL eviction does: their update record is
+ * forced to the log first, and their transaction can still commit or abort
+ * afterwards. A page changed again after it was written is simply dirty
+ * again. The cleaner writes at most a batch of pages per round and sleeps
+ * between rounds that found less than a full batch.
+ *
+ * @see BufferPool#setSteal
+ * @Threadsafe
+ */
+public class PageCleaner {
+
+    /** Default pause between two rounds, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+
+    /** Default largest number of pages written per round. */
+    public static final int DEFAULT_BATCH = 32;
+
+    private final BufferPool bufferPool;
+    private final Object wakeup;
+    private volatile long intervalMillis;
+    private volatile int batch;
+    private Thread thread;
+
+    private final AtomicLong rounds;
+    private final AtomicLong written;
+
+    /**
+     * Creates the page cleaner of the specified buffer pool.
+     *
+     * @param bufferPool the buffer pool whose dirty pages are written back
+     */
+    public PageCleaner(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.wakeup = new Object();
+        this.intervalMillis = DEFAULT_INTERVAL_MILLIS;
+        this.batch = DEFAULT_BATCH;
+        this.rounds = new AtomicLong(0);
+        this.written = new AtomicLong(0);
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /** Sets the pause between two rounds that did not write a full batch. */
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = Math.max(1, intervalMillis);
+    }
+
+    public int getBatch() {
+        return batch;
+    }
+
+    /** Sets the largest number of pages written per round. */
+    public void setBatch(int batch) {
+        this.batch = Math.max(1, batch);
+    }
+
+    /** @return true if the background thread is running */
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /** Starts the background thread, unless it is already running. */
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(this::run, "simpledb-page-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background thread and waits for its current round to
+     * finish. The thread is never interrupted, since an interrupt would
+     * close the file channels it is writing to.
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t == null)
+            return;
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+        t.join();
+    }
+
+    /**
+     * Runs one round in the calling thread.
+     *
+     * @return the number of pages written
+     */
+    public int clean() throws IOException {
+        int n = bufferPool.writeBackColdPages(batch);
+        rounds.incrementAndGet();
+        written.addAndGet(n);
+        return n;
+    }
+
+    private synchronized boolean isCurrent() {
+        return thread == Thread.currentThread();
+    }
+
+    private void run() {
+        while (isCurrent()) {
+            int n = 0;
+            try {
+                n = clean();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (n >= batch)
+                continue;
+            synchronized (wakeup) {
+                if (!isCurrent())
+                    return;
+                try {
+                    wakeup.wait(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** @return the number of rounds run */
+    public long getRoundCount() {
+        return rounds.get();
+    }
+
+    /** @return the number of pages written back */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PageCleaner(rounds=" + getRoundCount() + ", written=" + getWrittenCount() + ")";
+    }
+}
@@ -1,112 +1,323 @@
 package simpledb;
 
 
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The lock of one resource of the lock hierarchy: a page, or a table or a
+ * tuple, held in the modes of {@link LockMode}. Requests that cannot be
+ * granted wait in a FIFO queue and sleep on the lock's monitor until a
+ * release grants them, so a waiting transaction uses no CPU. Requests are
+ * granted in arrival order, a request never overtaking a conflicting one,
+ * except that a holder converting its lock to a stronger mode goes ahead of
+ * the queue. Each waiter tells the LockManager which transactions it waits
+ * for, and aborts if the LockManager's deadlock policy says so, then or
+ * while it waits.
+ */
 public class PageLock {
     private final LockManager lockManager;
-    private final PageId pageId;
-    private final Set<TransactionId> readers;
-    private TransactionId writer;
+    private final Object resource;
+    /** The mode each holder holds the lock in; protected by lock. */
+    private final HashMap<TransactionId, LockMode> holders;
     private final Object lock;
-    public PageLock(PageId pid, LockManager lockManager){
-        this.pageId = pid;
-        this.readers = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
-        this.writer = null;
+    /** Waiting requests, in the order they are granted; protected by lock. */
+    private final ArrayDeque<Request> queue;
+    /** Set once the lock is dropped by the LockManager; protected by lock. */
+    private boolean retired;
+
+    /** A waiting request for the lock. */
+    private static final class Request {
+        final TransactionId tid;
+        /** The mode the transaction holds the lock in once granted. */
+        final LockMode mode;
+        /** The mode the transaction held the lock in before, or null. */
+        final LockMode held;
+        /** The transaction already holds the lock and wants a stronger mode. */
+        final boolean upgrade;
+        boolean granted;
+
+        Request(TransactionId tid, LockMode mode, LockMode held) {
+            this.tid = tid;
+            this.mode = mode;
+            this.held = held;
+            this.upgrade = held != null;
+        }
+    }
+
+    /**
+     * @param resource the PageId, RecordId or table id the lock is for
+     */
+    public PageLock(Object resource, LockManager lockManager){
+        this.resource = resource;
+        this.holders = new HashMap<TransactionId, LockMode>();
         this.lockManager = lockManager;
         this.lock = new Object();
+        this.queue = new ArrayDeque<Request>();
+    }
+
+    /** @return the PageId, RecordId or table id the lock is for */
+    public Object getResource() {
+        return resource;
+    }
+
+    /** @return the mode the lock is granted in if tid requests mode; caller holds lock */
+    private LockMode target(TransactionId tid, LockMode mode) {
+        LockMode held = this.holders.get(tid);
+        return held == null ? mode : held.join(mode);
     }
 
-    public PageId getPageId() {
-        return pageId;
+    /** @return true if the lock can be granted to tid as things stand; caller holds lock */
+    private boolean compatible(TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> h : this.holders.entrySet())
+            if (!h.getKey().equals(tid) && !h.getValue().compatible(mode))
+                return false;
+        return true;
+    }
+
+    /** @return true if tid already holds the lock in a mode covering mode */
+    private boolean covers(TransactionId tid, LockMode mode) {
+        LockMode held = this.holders.get(tid);
+        return held != null && held.covers(mode);
     }
 
-    private boolean acquireReadOnly(TransactionId tid) throws InterruptedException,
-            TransactionAbortedException{
-        if(this.readers.contains(tid)) {
-            return true;
+    /**
+     * Grants the waiting requests at the head of the queue, in order, up to
+     * the first one that conflicts; caller holds lock and wakes the waiters.
+     */
+    private void grantWaiters() {
+        while (!this.queue.isEmpty()) {
+            Request r = this.queue.peekFirst();
+            if (!compatible(r.tid, r.mode))
+                break;
+            this.queue.pollFirst();
+            this.holders.put(r.tid, r.mode);
+            r.granted = true;
         }
-        else{
-            while(true){
-                synchronized (this.lock) {
-                    if (this.writer == null || this.writer.equals(tid)) {
-                        lockManager.removeTrans(tid);
-                        this.readers.add(tid);
-                        //this.modLock.unlock();
-                        return true;
-                    } else {
-                        HashSet<TransactionId> holders = new HashSet<>();
-                        if (!this.writer.equals(tid))
-                            holders.add(this.writer);
-                        if (holders.size() > 0) {
-                            if (this.lockManager.updateEdge(tid, holders)) {
-                                lockManager.removeTrans(tid);
-                                //this.modLock.unlock();
-                                throw new TransactionAbortedException();
-                            }
-                        }
-                    }
-                }
-            }
+    }
+
+    /**
+     * @return the transactions a waiting request waits for: the holders it
+     *         conflicts with and the conflicting requests queued ahead of it
+     */
+    private Set<TransactionId> blockers(Request r) {
+        HashSet<TransactionId> blockers = new HashSet<TransactionId>();
+        for (Map.Entry<TransactionId, LockMode> h : this.holders.entrySet())
+            if (!h.getValue().compatible(r.mode))
+                blockers.add(h.getKey());
+        for (Request ahead : this.queue) {
+            if (ahead == r)
+                break;
+            if (!ahead.mode.compatible(r.mode))
+                blockers.add(ahead.tid);
         }
+        blockers.remove(r.tid);
+        return blockers;
     }
 
-    private boolean acquireReadWrite(TransactionId tid) throws InterruptedException,
-            TransactionAbortedException{
-        if(this.writer != null && this.writer.equals(tid)){
-            return true;
-        }else {
-            while(true) {
+    public void acquire(TransactionId tid, Permissions perm) throws InterruptedException,
+            TransactionAbortedException {
+        if (!perm.equals(Permissions.READ_ONLY) && !perm.equals(Permissions.READ_WRITE))
+            throw new TransactionAbortedException();
+        acquire(tid, LockMode.of(perm));
+    }
+
+    /**
+     * Acquires the lock in the specified mode, or in the weakest mode
+     * covering it and the mode tid already holds, waiting as long as needed.
+     *
+     * @return false if the lock was retired, and so grants nothing
+     */
+    public boolean acquire(TransactionId tid, LockMode mode) throws InterruptedException,
+            TransactionAbortedException {
+        Request r;
+        synchronized (this.lock) {
+            if (this.retired)
+                return false;
+            if (covers(tid, mode))
+                return true;
+            boolean upgrade = this.holders.containsKey(tid);
+            LockMode target = target(tid, mode);
+            if (compatible(tid, target) && (upgrade || this.queue.isEmpty())) {
+                this.holders.put(tid, target);
+                return true;
+            }
+            r = new Request(tid, target, this.holders.get(tid));
+            if (upgrade) {
+                // behind the upgrades already waiting, ahead of everything else
+                ArrayDeque<Request> rest = new ArrayDeque<Request>(this.queue);
+                this.queue.clear();
+                while (!rest.isEmpty() && rest.peekFirst().upgrade)
+                    this.queue.addLast(rest.pollFirst());
+                this.queue.addLast(r);
+                this.queue.addAll(rest);
+            } else
+                this.queue.addLast(r);
+        }
+        boolean acquired = false;
+        try {
+            // the waits-for graph is updated outside the monitor, since
+            // choosing a victim wakes up the lock the victim waits for
+            Set<TransactionId> waitingFor = null;
+            long timeout = this.lockManager.getLockTimeout();
+            long deadline = System.nanoTime() + timeout * 1000000L;
+            while (true) {
+                Set<TransactionId> blockers;
                 synchronized (this.lock) {
-                    if ((this.writer == null && (this.readers.size() == 0 || (this.readers.size() == 1 && this.readers.contains(tid))))
-                            || (this.writer != null && this.writer.equals(tid) && ((this.readers.size() == 1 && this.readers.contains(tid))))) {
-                        this.lockManager.removeTrans(tid);
-                        this.writer = tid;
+                    if (r.granted) {
+                        acquired = true;
                         return true;
-                    } else {
-                        HashSet<TransactionId> holders = new HashSet<>();
-                        if (this.writer != null)
-                            holders.add(this.writer);
-                        holders.addAll(this.readers);
-                        holders.remove(tid);
-                        if (holders.size() > 0) {
-                            if (this.lockManager.updateEdge(tid, holders)) {
-                                lockManager.removeTrans(tid);
-                                throw new TransactionAbortedException();
-                            }
+                    }
+                    if (this.lockManager.isVictim(tid))
+                        throw new TransactionAbortedException();
+                    blockers = blockers(r);
+                    if (blockers.equals(waitingFor)) {
+                        if (timeout == 0) {
+                            this.lock.wait();
+                            continue;
                         }
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0)
+                            throw new TransactionAbortedException();
+                        this.lock.wait(Math.max(1, left / 1000000L));
+                        continue;
                     }
                 }
+                if (this.lockManager.waitsFor(tid, this, blockers)) {
+                    synchronized (this.lock) {
+                        // granted while the graph was searched; there is
+                        // nothing left to wait for
+                        if (r.granted) {
+                            acquired = true;
+                            return true;
+                        }
+                    }
+                    throw new TransactionAbortedException();
+                }
+                waitingFor = blockers;
+            }
+        } finally {
+            this.lockManager.removeTrans(tid);
+            synchronized (this.lock) {
+                if (!acquired) {
+                    if (!r.granted)
+                        this.queue.remove(r);
+                    else if (r.held == null)
+                        // granted just as we gave up, e.g. on an interrupt
+                        this.holders.remove(tid);
+                    else
+                        this.holders.put(tid, r.held);
+                    // requests behind this one may be grantable now, and the
+                    // others wait for one transaction less
+                    grantWaiters();
+                    this.lock.notifyAll();
+                }
             }
         }
     }
 
-    public void acquire(TransactionId tid, Permissions perm) throws InterruptedException,
-            TransactionAbortedException {
-        if (perm.equals(Permissions.READ_ONLY)) {
-            this.acquireReadOnly(tid);
-        } else if(perm.equals(Permissions.READ_WRITE)){
-            this.acquireReadWrite(tid);
-        }else
-            throw new TransactionAbortedException();
+    /** Wakes up the waiters, for one of them to find it was chosen as a deadlock victim. */
+    void wake() {
+        synchronized (this.lock) {
+            this.lock.notifyAll();
+        }
     }
 
-    public boolean releaseAll(TransactionId tid){
+    /**
+     * Acquires the lock only if it can be granted right away, without
+     * overtaking a waiting request.
+     * @return true if the lock was granted
+     */
+    public boolean tryAcquire(TransactionId tid, Permissions perm) {
+        return tryAcquire(tid, LockMode.of(perm));
+    }
+
+    /**
+     * Acquires the lock in the specified mode only if it can be granted
+     * right away, without overtaking a waiting request.
+     * @return true if the lock was granted
+     */
+    public boolean tryAcquire(TransactionId tid, LockMode mode) {
         synchronized (this.lock) {
-            readers.remove(tid);
-            if (writer != null && writer.equals(tid)) {
-                writer = null;
+            if (this.retired)
+                return false;
+            if (covers(tid, mode))
+                return true;
+            LockMode target = target(tid, mode);
+            if (compatible(tid, target) && (this.holders.containsKey(tid) || this.queue.isEmpty())) {
+                this.holders.put(tid, target);
+                return true;
             }
+            return false;
+        }
+    }
+
+    public boolean releaseAll(TransactionId tid){
+        synchronized (this.lock) {
+            this.holders.remove(tid);
             this.lockManager.removeTrans(tid);
+            grantWaiters();
+            // waiters recompute what they wait for
+            this.lock.notifyAll();
         }
         return true;
     }
 
+    /**
+     * Retires the lock if no transaction holds or waits for it, after which
+     * it grants nothing, so it can be dropped from the lock table without a
+     * late request being granted a lock no one else sees.
+     *
+     * @return true if the lock was retired
+     */
+    boolean retire(){
+        synchronized (this.lock) {
+            if (this.holders.isEmpty() && this.queue.isEmpty())
+                this.retired = true;
+            return this.retired;
+        }
+    }
+
+    public boolean isHeld(){
+        synchronized (this.lock) {
+            return !this.holders.isEmpty();
+        }
+    }
+
+    /**
+     * @return true if some transaction holds the lock in a mode covering the
+     *         specified one
+     */
+    public boolean isHeld(LockMode mode){
+        synchronized (this.lock) {
+            for (LockMode held : this.holders.values())
+                if (held.covers(mode))
+                    return true;
+            return false;
+        }
+    }
+
+    /** @return the number of requests waiting for this lock */
+    public int getQueueLength(){
+        synchronized (this.lock) {
+            return this.queue.size();
+        }
+    }
+
     public boolean holdLocks(TransactionId transactionId){
-        return writer.equals(transactionId) || readers.contains(transactionId);
+        synchronized (this.lock) {
+            return this.holders.containsKey(transactionId);
+        }
+    }
+
+    /** @return the mode tid holds the lock in, or null if it does not hold it */
+    public LockMode getMode(TransactionId tid){
+        synchronized (this.lock) {
+            return this.holders.get(tid);
+        }
     }
 
 }
@@ -501,6 +501,52 @@ public class Parser {
         }
     }
 
+    /**
+     * Handles the shell commands that are not SQL: "stats;" prints the
+     * statistics of the buffer pool and "stats reset;" sets them back to
+     * zero; "resize n;" and "resize n mb;" change the capacity of the buffer
+     * pool to n pages or n megabytes while it is in use.
+     *
+     * @param cmd a statement, ending with ';'
+     * @return true if the statement was one of these commands
+     */
+    public boolean processShellCommand(String cmd) {
+        String c = cmd.substring(0, cmd.length() - 1).trim().replaceAll("\\s+", " ");
+        if (c.equalsIgnoreCase("stats")) {
+            System.out.print(Database.getBufferPool().getStats().dump());
+            return true;
+        }
+        if (c.equalsIgnoreCase("stats reset")) {
+            Database.getBufferPool().getStats().reset();
+            System.out.println("Buffer pool statistics reset.");
+            return true;
+        }
+        String[] words = c.split(" ");
+        if (words[0].equalsIgnoreCase("resize")) {
+            BufferPool bp = Database.getBufferPool();
+            try {
+                boolean fits;
+                if (words.length == 2)
+                    fits = bp.resize(Integer.parseInt(words[1]));
+                else if (words.length == 3 && words[2].equalsIgnoreCase("mb"))
+                    fits = bp.resizeBytes(Long.parseLong(words[1]) << 20);
+                else {
+                    System.out.println("Usage: resize pages; or resize megabytes mb;");
+                    return true;
+                }
+                System.out.println("Buffer pool capacity is " + bp.getCapacity() + " pages ("
+                        + (bp.getCapacityBytes() >> 10) + " KB)"
+                        + (fits ? "." : "; dirty pages are evicted once their transactions complete."));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid buffer pool size: " + e.getMessage());
+            } catch (IllegalArgumentException | DbException e) {
+                System.out.println("Could not resize the buffer pool: " + e.getMessage());
+            }
+            return true;
+        }
+        return false;
+    }
+
     public void processNextStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
@@ -581,11 +627,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "stats", "resize" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,10 +641,15 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-offheap megabytes] [-steal]";
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
+        try {
+            BufferPoolDump.dump(Database.getBufferPool(), BufferPoolDump.fileFor(Database.getLogFile().logFile));
+        } catch (IOException e) {
+            System.out.println("Could not dump the buffer pool: " + e.getMessage());
+        }
         System.out.println("Bye");
     }
 
@@ -610,6 +661,7 @@ public class Parser {
         TableStats.computeStatistics();
 
         String queryFile = null;
+        boolean steal = false;
 
         if (argv.length > 1) {
             for (int i = 1; i < argv.length; i++) {
@@ -625,12 +677,33 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-offheap")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected buffer pool size in megabytes after -offheap\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    Database.resetBufferPoolOffHeap(Long.parseLong(argv[i]) << 20);
+                    System.out.println("Off-heap buffer pool of " + argv[i] + " MB enabled.");
+                } else if (argv[i].equals("-steal")) {
+                    // opt-in: aborts are undone from the log, but there is
+                    // no crash recovery yet to undo pages written back early
+                    steal = true;
+                    System.out.println("STEAL enabled; crash recovery is not supported.");
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
         }
+        if (steal) {
+            Database.getBufferPool().setSteal(true);
+            Database.getBufferPool().getPageCleaner().start();
+        }
+        BufferPoolDump.Loader warmUp = BufferPoolDump.load(Database.getBufferPool(),
+                BufferPoolDump.fileFor(Database.getLogFile().logFile));
+        if (warmUp != null)
+            System.out.println("Loading " + warmUp.getPageCount() + " pages into the buffer pool in the background.");
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
@@ -681,6 +754,11 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (processShellCommand(cmd)) {
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
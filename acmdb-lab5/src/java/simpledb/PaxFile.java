@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores a collection of tuples in no particular
+ * order on {@link PaxPage}s, which lay out each page column by column. It is
+ * meant for analytic tables that are scanned for a few of many columns:
+ * {@link #iterator(TransactionId, int[])} decodes only the requested fields
+ * and leaves the other minipages untouched. A table is stored in this format
+ * when its catalog entry is followed by the "pax" option.
+ * <p>
+ * Pages are identified by HeapPageIds and hold as many tuples as HeapPages of
+ * the same table, so read-ahead, the free-space map and the buffer pool treat
+ * a PaxFile like a HeapFile.
+ *
+ * @see PaxPage
+ * @see Catalog#loadSchema
+ */
+public class PaxFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc tupleDesc;
+    private final PageChannel pageChannel;
+    private final FreeSpaceMap freeSpaceMap;
+    private final int pageSize;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param td
+     *            the TupleDesc of the tuples stored in this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file whose pages have the
+     * specified size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param td
+     *            the TupleDesc of the tuples stored in this file.
+     * @param pageSize
+     *            the size of the pages of this file in bytes, or 0 to use
+     *            the page size of the buffer pool.
+     */
+    public PaxFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < 0)
+            throw new IllegalArgumentException("negative page size " + pageSize);
+        this.file = f;
+        this.tupleDesc = td;
+        this.pageChannel = new PageChannel(f);
+        this.freeSpaceMap = new FreeSpaceMap(f);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the free-space map that directs inserts to pages with room.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = getPageSize();
+        PaxPage page = null;
+        try {
+            byte[] data = new byte[pageSize];
+            pageChannel.read(data, (long) pid.pageNumber() * pageSize);
+            page = new PaxPage((HeapPageId) pid, data);
+            freeSpaceMap.update(pid.pageNumber(), page.getNumEmptySlots(), page.getNumSlots());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        PaxPage paxPage = (PaxPage) page;
+        int pageNo = page.getId().pageNumber();
+        pageChannel.write(page.getPageData(), (long) pageNo * getPageSize());
+        freeSpaceMap.update(pageNo, paxPage.getNumEmptySlots(), paxPage.getNumSlots());
+        freeSpaceMap.persist(pageNo);
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        try {
+            return (int) (pageChannel.size() / getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        pageChannel.close();
+        freeSpaceMap.close();
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        t.setRecordId(null);
+        int np = numPages();
+        int tableid = getId();
+        ArrayList<Page> dirtyPage = new ArrayList<>();
+        PaxPage page;
+        for (int i = freeSpaceMap.findPageWithFreeSpace(0, np); i >= 0; i = freeSpaceMap.findPageWithFreeSpace(i + 1, np)) {
+            HeapPageId pid = new HeapPageId(tableid, i);
+            page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() > 0) {
+                page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+                page.insertTuple(t);
+                freeSpaceMap.update(i, page.getNumEmptySlots(), page.getNumSlots());
+                dirtyPage.add(page);
+                return dirtyPage;
+            }
+            freeSpaceMap.update(i, 0, page.getNumSlots());
+        }
+        synchronized (this) {
+            np = numPages();
+            page = new PaxPage(new HeapPageId(tableid, np), PaxPage.createEmptyPageData(getPageSize()));
+            page.insertTuple(t);
+            writePage(page);
+        }
+        dirtyPage.add(page);
+        return dirtyPage;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tried to delete tuple with null rid");
+        PageId pageId = t.getRecordId().getPageId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        freeSpaceMap.update(pageId.pageNumber(), page.getNumEmptySlots(), page.getNumSlots());
+        ArrayList<Page> dirtyPage = new ArrayList<>();
+        dirtyPage.add(page);
+        return dirtyPage;
+    }
+
+    class PaxFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId transactionId;
+        private final int[] fields;
+        private final TupleDesc projected;
+        private ReadAhead.Stream readAhead;
+        private Iterator<Tuple> currentPageIterator;
+        private int currentPageNumber;
+
+        public PaxFileIterator(TransactionId tid, int[] fields, TupleDesc projected) {
+            this.transactionId = tid;
+            this.fields = fields;
+            this.projected = projected;
+            this.readAhead = null;
+            this.currentPageIterator = null;
+            this.currentPageNumber = -1;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            if (readAhead == null)
+                readAhead = Database.getBufferPool().getReadAhead().open(transactionId, getId());
+            currentPageNumber = -1;
+            currentPageIterator = Collections.<Tuple>emptyList().iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (currentPageIterator == null)
+                return null;
+            int np = numPages();
+            while (!currentPageIterator.hasNext()) {
+                if (currentPageNumber + 1 >= np)
+                    return null;
+                currentPageNumber++;
+                readAhead.access(currentPageNumber, np);
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(transactionId,
+                        new HeapPageId(getId(), currentPageNumber), Permissions.READ_ONLY, readAhead.getRing());
+                currentPageIterator = page.iterator(fields, projected);
+            }
+            return currentPageIterator.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            currentPageIterator = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[tupleDesc.numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return new PaxFileIterator(tid, all, tupleDesc);
+    }
+
+    /**
+     * Returns an iterator that decodes only the specified fields of every
+     * tuple, reading them from their minipages.
+     *
+     * @see DbFile#iterator(TransactionId, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new PaxFileIterator(tid, fields.clone(), tupleDesc.project(fields));
+    }
+}
@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A PaxPage holds as many tuples as a HeapPage of the same table, but lays
+ * them out column by column (PAX): after the slot bitmap, each field of the
+ * TupleDesc gets its own minipage holding that field for every slot, in slot
+ * order. Field i of slot s therefore lives at
+ * <pre>
+ *   headerSize + numSlots * (size of fields 0..i-1) + s * (size of field i)
+ * </pre>
+ * and is encoded exactly as by {@link Field#serialize}. The page keeps its
+ * raw bytes and decodes fields only when they are asked for, so a scan that
+ * needs 2 of 20 columns touches only those two minipages.
+ *
+ * @see PaxFile
+ * @see BufferPool
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final byte[] data;
+    private final ByteBuffer buf;
+    private final int headerSize;
+    private final int[] columnOffsets;
+    protected volatile TransactionId dirtier = null;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see #getPageData()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.length != pageSize)
+            throw new IOException("page data is " + data.length + " bytes, expected " + pageSize);
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = HeapPage.getNumSlots(td, pageSize);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnOffsets = new int[td.numFields()];
+        int offset = headerSize;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnOffsets[i] = offset;
+            offset += numSlots * td.getFieldType(i).getLen();
+        }
+        this.data = data.clone();
+        this.buf = ByteBuffer.wrap(this.data);
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the PaxPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage of a table with the specified page size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * Returns the total number of tuple slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                empty++;
+        }
+        return empty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((data[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            data[i / 8] |= 1 << (i % 8);
+        else
+            data[i / 8] &= ~(1 << (i % 8));
+    }
+
+    private int fieldOffset(int slot, int field) {
+        return columnOffsets[field] + slot * td.getFieldType(field).getLen();
+    }
+
+    /**
+     * Decodes a single field of the tuple in the specified slot.
+     *
+     * @param slot the slot of the tuple; must be in use
+     * @param field the index of the field in the TupleDesc of the table
+     */
+    public Field getField(int slot, int field) {
+        return td.getFieldType(field).parse(buf, fieldOffset(slot, field));
+    }
+
+    /**
+     * Reads an int field of the tuple in the specified slot without
+     * allocating a Field.
+     */
+    public int getInt(int slot, int field) {
+        return buf.getInt(fieldOffset(slot, field));
+    }
+
+    private void setField(int slot, int field, Field f) {
+        int offset = fieldOffset(slot, field);
+        if (td.getFieldType(field) == Type.STRING_TYPE) {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            buf.putInt(offset, len);
+            for (int j = 0; j < Type.STRING_LEN; j++)
+                data[offset + 4 + j] = j < len ? (byte) s.charAt(j) : 0;
+        } else {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc not match");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                for (int j = 0; j < td.numFields(); j++)
+                    setField(i, j, t.getField(j));
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("No empty slot!");
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if ((rid.getPageId().pageNumber() != pid.pageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tried to delete null tuple.");
+        markSlotUsed(slot, false);
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = fieldOffset(slot, j);
+            Arrays.fill(data, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+        }
+        t.setRecordId(null);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.dirtier = tid;
+        else this.dirtier = null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return iterator(all, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that only decodes the
+     * specified fields. The returned tuples have the TupleDesc projected,
+     * with field j holding field fields[j] of the stored tuple, and carry the
+     * RecordId of the stored tuple.
+     *
+     * @param fields the indexes of the fields to decode
+     * @param projected the TupleDesc of the returned tuples, normally
+     *            td.project(fields)
+     */
+    public Iterator<Tuple> iterator(final int[] fields, final TupleDesc projected) {
+        return new Iterator<Tuple>() {
+            private int slot = nextUsed(0);
+
+            private int nextUsed(int from) {
+                while (from < numSlots && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (slot >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(projected);
+                for (int j = 0; j < fields.length; j++)
+                    t.setField(j, getField(slot, fields[j]));
+                t.setRecordId(new RecordId(pid, slot));
+                slot = nextUsed(slot + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
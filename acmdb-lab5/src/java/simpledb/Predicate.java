@@ -102,6 +102,8 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (this.fieldValue instanceof IntField)
+            return IntField.compare(this.op, t.getInt(this.fieldNumber), ((IntField) this.fieldValue).getValue());
         Field f = t.getField(this.fieldNumber);
         return f.compare(this.op, this.fieldValue);
     }
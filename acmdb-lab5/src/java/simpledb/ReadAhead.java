@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead is the asynchronous sequential read-ahead engine of a BufferPool.
+ * A scan opens a {@link Stream} and reports every page it is about to fetch.
+ * Once the stream notices a run of sequential page accesses it issues
+ * background reads for the next pages into the buffer pool, so the scan
+ * finds them resident instead of stalling on a synchronous disk read.
+ * <p>
+ * The read-ahead window adapts to the consumer: it doubles whenever the scan
+ * catches up with the pages in flight (or has to wait for one of them), and
+ * halves whenever a prefetched page was evicted before the scan reached it.
+ * The window never exceeds a quarter of the buffer pool capacity.
+ * <p>
+ * Background reads go through {@link BufferPool#prefetchPage}, which takes a
+ * shared lock on behalf of the scanning transaction without ever waiting
+ * for it, so read-ahead cannot introduce new waits or deadlocks. Streams of a
+ * transaction are shut down (and their in-flight reads drained) before the
+ * transaction releases its locks.
+ * <p>
+ * A stream over a table with more pages than the buffer pool holds also
+ * gives its scan a {@link BufferRing}, so that scanning the table, which
+ * could not stay cached anyway, does not evict the pages other transactions
+ * use. Prefetched pages go through the same ring, which is kept at least
+ * twice as large as the read-ahead window.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /** Default upper bound on the number of pages read ahead of a scan. */
+    public static final int DEFAULT_MAX_WINDOW = 32;
+
+    /** Number of consecutive sequential accesses before read-ahead starts. */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /** Window size used when read-ahead starts. */
+    private static final int INITIAL_WINDOW = 2;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-read-ahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final BufferPool bufferPool;
+    private final ConcurrentHashMap<TransactionId, Set<Stream>> streams;
+    private volatile boolean enabled;
+    private volatile boolean bufferRings;
+    private volatile int maxWindow;
+
+    private final AtomicLong issued;
+    private final AtomicLong used;
+    private final AtomicLong wasted;
+
+    /**
+     * Creates the read-ahead engine of the specified buffer pool.
+     *
+     * @param bufferPool the buffer pool prefetched pages are loaded into
+     */
+    public ReadAhead(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.streams = new ConcurrentHashMap<TransactionId, Set<Stream>>();
+        this.enabled = true;
+        this.bufferRings = true;
+        this.maxWindow = DEFAULT_MAX_WINDOW;
+        this.issued = new AtomicLong(0);
+        this.used = new AtomicLong(0);
+        this.wasted = new AtomicLong(0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns read-ahead on or off for streams opened from now on. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean usesBufferRings() {
+        return bufferRings;
+    }
+
+    /**
+     * Turns buffer rings for scans of tables larger than the buffer pool on
+     * or off for streams opened from now on.
+     */
+    public void setBufferRings(boolean bufferRings) {
+        this.bufferRings = bufferRings;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /** Sets the upper bound of the read-ahead window, in pages. */
+    public void setMaxWindow(int maxWindow) {
+        this.maxWindow = Math.max(1, maxWindow);
+    }
+
+    /** @return the number of background page reads issued */
+    public long getIssuedCount() {
+        return issued.get();
+    }
+
+    /** @return the number of prefetched pages a scan went on to use */
+    public long getUsedCount() {
+        return used.get();
+    }
+
+    /** @return the number of prefetched pages evicted or abandoned unused */
+    public long getWastedCount() {
+        return wasted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadAhead(issued=" + getIssuedCount() + ", used=" + getUsedCount()
+                + ", wasted=" + getWastedCount() + ")";
+    }
+
+    /**
+     * Opens a read-ahead stream for a scan of the specified table.
+     *
+     * @param tid the transaction running the scan
+     * @param tableId the table being scanned
+     * @return the stream the scan reports its page accesses to
+     */
+    public Stream open(TransactionId tid, int tableId) {
+        Stream s = new Stream(tid, tableId);
+        streams.computeIfAbsent(tid, k -> Collections.newSetFromMap(new ConcurrentHashMap<Stream, Boolean>())).add(s);
+        return s;
+    }
+
+    /**
+     * Shuts down every stream of the specified transaction and waits for their
+     * in-flight reads. Must be called before the transaction releases its locks.
+     */
+    public void transactionComplete(TransactionId tid) {
+        Set<Stream> ss = streams.remove(tid);
+        if (ss != null) {
+            for (Stream s : ss)
+                s.shutdown();
+        }
+    }
+
+    private int windowLimit() {
+        return Math.max(1, Math.min(maxWindow, bufferPool.getCapacity() / 4));
+    }
+
+    private int ringSize() {
+        return Math.min(Math.max(BufferRing.DEFAULT_SIZE, 2 * windowLimit()),
+                Math.max(1, bufferPool.getCapacity() / 2));
+    }
+
+    /**
+     * The read-ahead state of a single scan, and the ring its pages are read
+     * through if the table is larger than the buffer pool.
+     */
+    public class Stream {
+        private final TransactionId tid;
+        private final int tableId;
+        private final HashMap<Integer, Future<Boolean>> inflight;
+        private final HashSet<Integer> prefetched;
+        private int lastPage;
+        private int sequentialRun;
+        private int window;
+        private int nextToIssue;
+        private boolean closed;
+        private final boolean useRing;
+        private volatile BufferRing ring;
+
+        private Stream(TransactionId tid, int tableId) {
+            this.tid = tid;
+            this.tableId = tableId;
+            this.inflight = new HashMap<Integer, Future<Boolean>>();
+            this.prefetched = new HashSet<Integer>();
+            this.lastPage = -1;
+            this.sequentialRun = 0;
+            this.window = 0;
+            this.nextToIssue = 0;
+            this.closed = false;
+            this.useRing = bufferRings;
+            this.ring = null;
+        }
+
+        /**
+         * Returns the ring the scan should read its pages through, or null
+         * if it should cache them normally. Decided on the first access.
+         *
+         * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+         */
+        public BufferRing getRing() {
+            return ring;
+        }
+
+        /**
+         * Reports that the scan is about to fetch the specified page through
+         * the buffer pool. If the page is being read in the background this
+         * waits for that read instead of issuing a second one.
+         *
+         * @param pageNo the page the scan is about to fetch
+         * @param numPages the number of pages in the file
+         */
+        public void access(int pageNo, int numPages) {
+            Future<Boolean> pending;
+            synchronized (this) {
+                if (ring == null && useRing && numPages > bufferPool.getCapacity())
+                    ring = new BufferRing(ringSize());
+                if (closed || !enabled)
+                    return;
+                if (pageNo == lastPage + 1) {
+                    sequentialRun++;
+                } else {
+                    sequentialRun = 0;
+                    window = 0;
+                    nextToIssue = pageNo + 1;
+                }
+                lastPage = pageNo;
+
+                pending = inflight.remove(pageNo);
+                if (pending != null) {
+                    // the scan caught up with read-ahead: widen the window
+                    window = Math.min(windowLimit(), window * 2);
+                } else if (prefetched.remove(pageNo)) {
+                    if (bufferPool.isResident(new HeapPageId(tableId, pageNo))) {
+                        used.incrementAndGet();
+                        if (prefetched.isEmpty() && inflight.isEmpty())
+                            window = Math.min(windowLimit(), window * 2);
+                    } else {
+                        // evicted before we got to it: read ahead less
+                        wasted.incrementAndGet();
+                        window = Math.max(1, window / 2);
+                    }
+                }
+
+                if (sequentialRun >= SEQUENTIAL_THRESHOLD) {
+                    if (window == 0)
+                        window = Math.min(windowLimit(), INITIAL_WINDOW);
+                    int from = Math.max(nextToIssue, pageNo + 1);
+                    int to = Math.min(pageNo + window, numPages - 1);
+                    for (int p = from; p <= to; p++)
+                        issue(p);
+                    nextToIssue = Math.max(nextToIssue, to + 1);
+                }
+            }
+            if (pending != null && await(pending))
+                used.incrementAndGet();
+        }
+
+        private void issue(final int pageNo) {
+            final PageId pid = new HeapPageId(tableId, pageNo);
+            if (inflight.containsKey(pageNo) || prefetched.contains(pageNo) || bufferPool.isResident(pid))
+                return;
+            issued.incrementAndGet();
+            Future<Boolean> f = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    synchronized (Stream.this) {
+                        if (closed)
+                            return false;
+                    }
+                    boolean loaded = bufferPool.prefetchPage(tid, pid, ring);
+                    synchronized (Stream.this) {
+                        if (inflight.remove(pageNo) != null && loaded)
+                            prefetched.add(pageNo);
+                    }
+                    return loaded;
+                }
+            });
+            inflight.put(pageNo, f);
+        }
+
+        /**
+         * Closes this stream and waits for its in-flight reads. Prefetched
+         * pages that were never used are counted as wasted.
+         */
+        public void close() {
+            streams.getOrDefault(tid, Collections.<Stream>emptySet()).remove(this);
+            shutdown();
+        }
+
+        private void shutdown() {
+            ArrayList<Future<Boolean>> pending;
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+                wasted.addAndGet(prefetched.size());
+                prefetched.clear();
+                pending = new ArrayList<Future<Boolean>>(inflight.values());
+                inflight.clear();
+            }
+            // not cancelled: a read already running may be taking locks for
+            // the transaction, so it is waited for; one that has not started
+            // sees closed and returns at once
+            for (Future<Boolean> f : pending) {
+                if (await(f))
+                    wasted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Waits for a background read.
+     * @return true if the read loaded the page into the buffer pool
+     */
+    private static boolean await(Future<Boolean> f) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return f.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (CancellationException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
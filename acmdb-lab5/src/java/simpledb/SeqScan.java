@@ -34,6 +34,7 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFile file;
     private DbFileIterator currentFileIterator;
+    private int[] fields;
 
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
@@ -43,6 +44,26 @@ public class SeqScan implements DbIterator {
         this.tableAlias = tableAlias;
         this.isOpen = false;
         this.currentFileIterator = null;
+        this.fields = null;
+    }
+
+    /**
+     * Creates a sequential scan that only returns the specified fields of
+     * each tuple, in the order given. Files with a columnar layout (see
+     * {@link PaxFile}) decode only those fields.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table
+     * @param fields
+     *            the indexes of the fields to return
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias);
+        this.fields = fields.clone();
     }
 
     /**
@@ -81,6 +102,7 @@ public class SeqScan implements DbIterator {
         this.tableAlias = tableAlias;
         this.isOpen = false;
         this.currentFileIterator = null;
+        this.fields = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -90,7 +112,14 @@ public class SeqScan implements DbIterator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         isOpen = true;
-        this.currentFileIterator = Database.getCatalog().getDatabaseFile(this.tableId).iterator(transactionId);
+        // the file locks what it reads under an IS lock on the table, so
+        // writers of other tuples are not shut out; many fine-grained locks
+        // are escalated to a table lock by the lock manager
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (fields == null)
+            this.currentFileIterator = dbFile.iterator(transactionId);
+        else
+            this.currentFileIterator = dbFile.iterator(transactionId, fields);
         this.currentFileIterator.open();
     }
 
@@ -107,6 +136,8 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(this.tableId);
+        if (fields != null)
+            tupleDesc = tupleDesc.project(fields);
         int num = tupleDesc.numFields();
         Type[] types = new Type[num];
         String[] names = new String[num];
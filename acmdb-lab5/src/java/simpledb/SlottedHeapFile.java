@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that stores a collection of tuples in no
+ * particular order, like HeapFile, but on {@link SlottedPage}s: records are
+ * variable-length, so string-heavy tables take far fewer pages and scans and
+ * the buffer pool move far fewer bytes. A table is stored in this format when
+ * its catalog entry is followed by the "slotted" option.
+ * <p>
+ * Pages are identified by HeapPageIds, so read-ahead and the buffer pool
+ * treat a SlottedHeapFile exactly like a HeapFile.
+ *
+ * @see SlottedPage
+ * @see Catalog#loadSchema
+ */
+public class SlottedHeapFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc tupleDesc;
+    private final PageChannel pageChannel;
+    private final FreeSpaceMap freeSpaceMap;
+    private final int pageSize;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param td
+     *            the TupleDesc of the tuples stored in this file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a slotted heap file backed by the specified file whose pages have the
+     * specified size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param td
+     *            the TupleDesc of the tuples stored in this file.
+     * @param pageSize
+     *            the size of the pages of this file in bytes, or 0 to use
+     *            the page size of the buffer pool.
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < 0)
+            throw new IllegalArgumentException("negative page size " + pageSize);
+        this.file = f;
+        this.tupleDesc = td;
+        this.pageChannel = new PageChannel(f);
+        this.freeSpaceMap = new FreeSpaceMap(f);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the free-space map that directs inserts to pages with room.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = getPageSize();
+        SlottedPage page = null;
+        try {
+            byte[] data = new byte[pageSize];
+            pageChannel.read(data, (long) pid.pageNumber() * pageSize);
+            page = new SlottedPage((HeapPageId) pid, data);
+            freeSpaceMap.update(page);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageNo = page.getId().pageNumber();
+        pageChannel.write(page.getPageData(), (long) pageNo * getPageSize());
+        freeSpaceMap.update((SlottedPage) page);
+        freeSpaceMap.persist(pageNo);
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile.
+     */
+    public int numPages() {
+        try {
+            return (int) (pageChannel.size() / getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        pageChannel.close();
+        freeSpaceMap.close();
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(tupleDesc))
+            throw new DbException("TupleDesc not match");
+        int need = SlottedPage.getRecordSize(t) + SlottedPage.SLOT_SIZE;
+        if (need > SlottedPage.getCapacity(getPageSize()))
+            throw new DbException("tuple too large for a page");
+        t.setRecordId(null);
+        int minCategory = FreeSpaceMap.category(need, SlottedPage.getCapacity(getPageSize()));
+        int np = numPages();
+        int tableid = getId();
+        ArrayList<Page> dirtyPage = new ArrayList<>();
+        SlottedPage page;
+        for (int i = freeSpaceMap.findPageWithFreeSpace(0, np, minCategory); i >= 0;
+                i = freeSpaceMap.findPageWithFreeSpace(i + 1, np, minCategory)) {
+            HeapPageId pid = new HeapPageId(tableid, i);
+            page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.hasRoomFor(t)) {
+                BufferPool.Frame frame = Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+                page = (SlottedPage) frame.getPage();
+                frame.latchExclusive();
+                try {
+                    page.insertTuple(t);
+                } finally {
+                    frame.unlatchExclusive();
+                    Database.getBufferPool().unpinPage(tid, frame);
+                }
+                freeSpaceMap.update(page);
+                dirtyPage.add(page);
+                return dirtyPage;
+            }
+            freeSpaceMap.update(page);
+        }
+        synchronized (this) {
+            np = numPages();
+            page = new SlottedPage(new HeapPageId(tableid, np), SlottedPage.createEmptyPageData(getPageSize()));
+            page.insertTuple(t);
+            writePage(page);
+        }
+        dirtyPage.add(page);
+        return dirtyPage;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tried to delete tuple with null rid");
+        PageId pageId = t.getRecordId().getPageId();
+        BufferPool.Frame frame = Database.getBufferPool().pinPage(tid, pageId, Permissions.READ_WRITE);
+        SlottedPage page = (SlottedPage) frame.getPage();
+        frame.latchExclusive();
+        try {
+            page.deleteTuple(t);
+        } finally {
+            frame.unlatchExclusive();
+            Database.getBufferPool().unpinPage(tid, frame);
+        }
+        freeSpaceMap.update(page);
+        ArrayList<Page> dirtyPage = new ArrayList<>();
+        dirtyPage.add(page);
+        return dirtyPage;
+    }
+
+    class SlottedHeapFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId transactionId;
+        private ReadAhead.Stream readAhead;
+        private Iterator<Tuple> currentPageIterator;
+        private int currentPageNumber;
+
+        public SlottedHeapFileIterator(TransactionId tid) {
+            this.transactionId = tid;
+            this.readAhead = null;
+            this.currentPageIterator = null;
+            this.currentPageNumber = -1;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            if (readAhead == null)
+                readAhead = Database.getBufferPool().getReadAhead().open(transactionId, getId());
+            currentPageNumber = -1;
+            currentPageIterator = Collections.<Tuple>emptyList().iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (currentPageIterator == null)
+                return null;
+            int np = numPages();
+            while (!currentPageIterator.hasNext()) {
+                if (currentPageNumber + 1 >= np)
+                    return null;
+                currentPageNumber++;
+                readAhead.access(currentPageNumber, np);
+                SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(transactionId,
+                        new HeapPageId(getId(), currentPageNumber), Permissions.READ_ONLY, readAhead.getRing());
+                currentPageIterator = page.iterator();
+            }
+            return currentPageIterator.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            currentPageIterator = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedHeapFileIterator(tid);
+    }
+}
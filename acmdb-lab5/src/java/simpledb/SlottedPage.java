@@ -0,0 +1,380 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedHeapFile
+ * and implements the Page interface that is used by BufferPool.
+ * <p>
+ * Unlike a HeapPage, where every tuple takes td.getSize() bytes, a
+ * SlottedPage stores variable-length records: an int field takes 4 bytes and
+ * a string field takes a 2-byte length followed by the characters actually
+ * present, so short strings no longer cost STRING_LEN + 4 bytes each.
+ * <p>
+ * The layout of a page is:
+ * <pre>
+ *   int numSlots | int freeEnd | slot directory ... free space ... | records
+ * </pre>
+ * The slot directory grows forward from the header with one entry of
+ * {@link #SLOT_SIZE} bytes per slot (unsigned short offset, unsigned short
+ * length; a length of 0 marks an empty slot), and records grow backward
+ * from the end of the page, freeEnd being the offset of the lowest record.
+ * A tuple keeps its slot number for as long as it lives on the page, so its
+ * RecordId stays valid when records are moved by {@link #compact()}.
+ * An all-zero page (freeEnd == 0) is a valid empty page.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+    /** Size of the page header: the slot count and the start of the record area. */
+    public static final int HEADER_SIZE = 8;
+
+    /** Size of one slot directory entry. */
+    public static final int SLOT_SIZE = 4;
+
+    /** Largest page size whose offsets fit in a slot directory entry. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] data;
+    private final ByteBuffer buf;
+    protected volatile TransactionId dirtier = null;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @see #getPageData()
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.length != pageSize)
+            throw new IOException("page data is " + data.length + " bytes, expected " + pageSize);
+        if (data.length > MAX_PAGE_SIZE)
+            throw new IOException("page size " + data.length + " too large for a slotted page");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.clone();
+        this.buf = ByteBuffer.wrap(this.data);
+        if (getFreeEnd() == 0)
+            setFreeEnd(this.data.length);
+        if (HEADER_SIZE + getNumSlots() * SLOT_SIZE > getFreeEnd() || getFreeEnd() > this.data.length)
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the SlottedPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage of a table with the specified page size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * Returns the number of bytes the record of the specified tuple takes on
+     * a slotted page, not counting its slot directory entry.
+     */
+    public static int getRecordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes usable for records and slot directory
+     * entries on an empty page of the default page size.
+     */
+    public static int getCapacity() {
+        return getCapacity(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of bytes usable for records and slot directory
+     * entries on an empty page of the specified size.
+     */
+    public static int getCapacity(int pageSize) {
+        return pageSize - HEADER_SIZE;
+    }
+
+    /**
+     * Returns the number of entries in the slot directory, used or not.
+     */
+    public int getNumSlots() {
+        return buf.getInt(0);
+    }
+
+    private void setNumSlots(int n) {
+        buf.putInt(0, n);
+    }
+
+    private int getFreeEnd() {
+        return buf.getInt(4);
+    }
+
+    private void setFreeEnd(int offset) {
+        buf.putInt(4, offset);
+    }
+
+    private int slotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xFFFF;
+    }
+
+    private int slotLength(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xFFFF;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotLength(i) > 0;
+    }
+
+    /**
+     * Returns the number of bytes of contiguous free space between the slot
+     * directory and the records.
+     */
+    private int getContiguousFreeSpace() {
+        return getFreeEnd() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * Returns the total number of free bytes on this page, including the
+     * space of deleted records that compaction would reclaim.
+     */
+    public int getFreeSpace() {
+        int used = getNumSlots() * SLOT_SIZE;
+        for (int i = 0; i < getNumSlots(); i++)
+            used += slotLength(i);
+        return getCapacity(data.length) - used;
+    }
+
+    private int findEmptySlot() {
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (slotLength(i) == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the specified tuple fits on this page, possibly after
+     * compaction.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int need = getRecordSize(t) + (findEmptySlot() < 0 ? SLOT_SIZE : 0);
+        return need <= getFreeSpace();
+    }
+
+    /**
+     * Moves all records to the end of the page, in slot order, so that the
+     * space of deleted records becomes contiguous free space again. Slot
+     * numbers are not changed.
+     */
+    public void compact() {
+        int n = getNumSlots();
+        byte[] records = new byte[data.length];
+        int end = data.length;
+        for (int i = 0; i < n; i++) {
+            int len = slotLength(i);
+            if (len == 0)
+                continue;
+            end -= len;
+            System.arraycopy(data, slotOffset(i), records, end, len);
+            setSlot(i, end, len);
+        }
+        int dirEnd = HEADER_SIZE + n * SLOT_SIZE;
+        Arrays.fill(data, dirEnd, end, (byte) 0);
+        System.arraycopy(records, end, data, end, data.length - end);
+        setFreeEnd(end);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc not match");
+        int len = getRecordSize(t);
+        int slot = findEmptySlot();
+        int need = len + (slot < 0 ? SLOT_SIZE : 0);
+        if (need > getFreeSpace())
+            throw new DbException("No room for tuple!");
+        if (need > getContiguousFreeSpace())
+            compact();
+
+        if (slot < 0) {
+            slot = getNumSlots();
+            setNumSlots(slot + 1);
+        }
+        int offset = getFreeEnd() - len;
+        writeRecord(t, offset);
+        setSlot(slot, offset, len);
+        setFreeEnd(offset);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page. The space of the record is
+     *   reclaimed by the next compaction.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if ((rid.getPageId().pageNumber() != pid.pageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.tupleno()))
+            throw new DbException("tried to delete null tuple.");
+        int slot = rid.tupleno();
+        if (slotOffset(slot) == getFreeEnd())
+            setFreeEnd(getFreeEnd() + slotLength(slot));
+        setSlot(slot, 0, 0);
+        // trailing empty slots can be dropped, nobody refers to them
+        int n = getNumSlots();
+        while (n > 0 && slotLength(n - 1) == 0)
+            n--;
+        if (n != getNumSlots()) {
+            Arrays.fill(data, HEADER_SIZE + n * SLOT_SIZE, HEADER_SIZE + getNumSlots() * SLOT_SIZE, (byte) 0);
+            setNumSlots(n);
+        }
+        if (n == 0)
+            setFreeEnd(data.length);
+        t.setRecordId(null);
+    }
+
+    private void writeRecord(Tuple t, int offset) {
+        ByteBuffer out = ByteBuffer.wrap(data);
+        out.position(offset);
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int n = Math.min(s.length(), Type.STRING_LEN);
+                out.putShort((short) n);
+                for (int j = 0; j < n; j++)
+                    out.put((byte) s.charAt(j));
+            } else {
+                out.putInt(((IntField) f).getValue());
+            }
+        }
+    }
+
+    private Tuple readRecord(int slot) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        in.position(slotOffset(slot));
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                byte[] bs = new byte[in.getShort() & 0xFFFF];
+                in.get(bs);
+                t.setField(i, new StringField(new String(bs), Type.STRING_LEN));
+            } else {
+                t.setField(i, new IntField(in.getInt()));
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.dirtier = tid;
+        else this.dirtier = null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> usedTuples = new ArrayList<>();
+        for (int i = 0; i < getNumSlots(); ++i) {
+            if (isSlotUsed(i))
+                usedTuples.add(readRecord(i));
+        }
+        return Collections.unmodifiableList(usedTuples).iterator();
+    }
+}
@@ -65,7 +65,7 @@ public class TableStats {
      * histograms.
      */
     static final int NUM_HIST_BINS = 100;
-    private HeapFile table;
+    private DbFile table;
     private int ioCostPerPage;
     private TupleDesc tupleDesc;
     private int numTuple;
@@ -92,7 +92,7 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
-        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.table = Database.getCatalog().getDatabaseFile(tableid);
         this.ioCostPerPage = ioCostPerPage;
         this.integerHistograms = new ConcurrentHashMap<Integer, IntHistogram>();
         this.stringHistograms = new ConcurrentHashMap<Integer, StringHistogram>();
@@ -30,6 +30,26 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Creates a tuple over the specified field array, without allocating one.
+     * Subclasses that are views over other storage (see {@link TupleView}
+     * and {@link ConcatTuple}) pass null and override getField and setField,
+     * until {@link #resetTupleDesc} gives them a field array of their own.
+     */
+    protected Tuple(TupleDesc td, Field[] fields) {
+        this.tupleDesc = td;
+        this.recordId = null;
+        this.fields = fields;
+    }
+
+    /**
+     * @return true if this tuple has no field array, its fields being held
+     *         by the view subclassing it
+     */
+    protected boolean isView() {
+        return this.fields == null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -82,6 +102,18 @@ public class Tuple implements Serializable {
         return this.fields[i];
     }
 
+    /**
+     * Returns the value of the ith field, which must be an int field.
+     * Views over page bytes override this to read the value straight from
+     * the buffer without allocating an IntField.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -94,11 +126,12 @@ public class Tuple implements Serializable {
         // some code goes here
         //throw new UnsupportedOperationException("Implement this");
         StringBuilder ret = new StringBuilder();
-        for(int i = 0; i < this.fields.length; ++i){
-            if(i != this.fields.length - 1)
-                ret.append(this.fields[i].toString()).append('\t');
+        int n = this.tupleDesc.numFields();
+        for(int i = 0; i < n; ++i){
+            if(i != n - 1)
+                ret.append(getField(i).toString()).append('\t');
             else
-                ret.append(this.fields[i].toString());
+                ret.append(getField(i).toString());
         }
         return ret.toString();
     }
@@ -110,7 +143,10 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return null;
+        Field[] all = new Field[this.tupleDesc.numFields()];
+        for (int i = 0; i < all.length; ++i)
+            all[i] = getField(i);
+        return Arrays.asList(all).iterator();
     }
 
     /**
@@ -191,6 +191,24 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(newTypeAr, newFieldAr);
     }
 
+    /**
+     * Returns a TupleDesc holding only the specified fields of this one, in
+     * the order given.
+     *
+     * @param fields
+     *            the indexes of the fields to keep
+     * @return the new TupleDesc
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] newTypeAr = new Type[fields.length];
+        String[] newFieldAr = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            newTypeAr[i] = getFieldType(fields[i]);
+            newFieldAr[i] = getFieldName(fields[i]);
+        }
+        return new TupleDesc(newTypeAr, newFieldAr);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
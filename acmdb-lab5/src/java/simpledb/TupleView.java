@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * TupleView is a Tuple that is a flyweight view over the bytes of a tuple
+ * stored in a page buffer, in the format written by {@link Field#serialize}.
+ * Nothing is copied when the view is created: {@link #getInt} reads straight
+ * from the buffer, and {@link #getField} decodes a field on first access and
+ * remembers it.
+ * <p>
+ * A view is only valid while the bytes it points to are not reused. The page
+ * that created it calls {@link #detach()} before it overwrites them (e.g. when
+ * the tuple is deleted), which decodes the remaining fields so the view keeps
+ * its values. setField likewise only changes the view, never the page, and
+ * resetTupleDesc turns the view into a plain tuple of the new schema.
+ *
+ * @see HeapPage#getTuple
+ */
+public class TupleView extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient volatile ByteBuffer buf;
+    private final int offset;
+    private final int[] fieldOffsets;
+    private volatile Field[] decoded;
+
+    /**
+     * Creates a view over a tuple stored in a buffer.
+     *
+     * @param td
+     *            the schema of the tuple
+     * @param buf
+     *            the buffer holding the tuple; its position is not used
+     * @param offset
+     *            the offset of the first field of the tuple in buf
+     * @param fieldOffsets
+     *            the offset of every field relative to the first one
+     */
+    public TupleView(TupleDesc td, ByteBuffer buf, int offset, int[] fieldOffsets) {
+        super(td, null);
+        this.buf = buf;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+        this.decoded = null;
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (!isView())
+            return super.getField(i);
+        Field[] d = decoded;
+        if (d != null && d[i] != null)
+            return d[i];
+        return decode(i);
+    }
+
+    private synchronized Field decode(int i) {
+        if (decoded == null)
+            decoded = new Field[getTupleDesc().numFields()];
+        if (decoded[i] == null)
+            decoded[i] = getTupleDesc().getFieldType(i).parse(buf, offset + fieldOffsets[i]);
+        return decoded[i];
+    }
+
+    @Override
+    public int getInt(int i) {
+        if (!isView())
+            return super.getInt(i);
+        Field[] d = decoded;
+        if (d != null && d[i] != null)
+            return ((IntField) d[i]).getValue();
+        ByteBuffer b = buf;
+        if (b != null)
+            return b.getInt(offset + fieldOffsets[i]);
+        return ((IntField) getField(i)).getValue();
+    }
+
+    @Override
+    public synchronized void setField(int i, Field f) {
+        if (!isView()) {
+            super.setField(i, f);
+            return;
+        }
+        detach();
+        decoded[i] = f;
+    }
+
+    /**
+     * Decodes every field that has not been decoded yet and drops the
+     * reference to the buffer, so the view no longer depends on its bytes.
+     */
+    public synchronized void detach() {
+        if (buf == null)
+            return;
+        for (int i = 0; i < getTupleDesc().numFields(); i++)
+            decode(i);
+        buf = null;
+    }
+
+    /**
+     * Drops the bytes and the decoded fields of the view, which from now on
+     * holds the fields of the new schema like a plain tuple.
+     */
+    @Override
+    public synchronized void resetTupleDesc(TupleDesc td) {
+        buf = null;
+        decoded = null;
+        super.resetTupleDesc(td);
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+        detach();
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * VersionStore keeps the committed versions of pages that snapshot
+ * transactions may still read, so that read-only transactions see the
+ * database as it was when they began without taking any locks, and neither
+ * block writers nor are blocked by them.
+ * <p>
+ * A snapshot is the number of the last versioned commit when it began. A
+ * commit made while snapshots are active gets the next number, and before
+ * its pages are written it saves their before images (see
+ * {@link Page#getBeforeImage}), the versions they replace, tagged with that
+ * number. A snapshot reads a page as the oldest version replaced by a commit
+ * after the snapshot began, or as the last committed image if no later
+ * commit replaced it. Commits made while no snapshot is active save nothing;
+ * a snapshot only begins once such commits are over.
+ * <p>
+ * Under STEAL, the committed image of a page written back before its
+ * transaction ends is kept until then, since the file no longer has it.
+ * <p>
+ * Versions no active snapshot can read are dropped whenever a snapshot ends:
+ * those replaced by commits no later than the oldest active snapshot.
+ *
+ * @see BufferPool#beginSnapshot
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** A committed version of a page, current until the commit numbered until. */
+    private static final class Version {
+        final long until;
+        final Page page;
+
+        Version(long until, Page page) {
+            this.until = until;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Held shared by snapshot reads and by commits made while no snapshot is
+     * active, exclusive by versioned commits and by snapshots beginning.
+     */
+    private final ReentrantReadWriteLock lock;
+    /** Number of the last versioned commit; protected by lock. */
+    private long clock;
+    private final ConcurrentHashMap<TransactionId, Long> snapshots;
+    /** The versions of each page, oldest first; protected by lock. */
+    private final HashMap<PageId, ArrayDeque<Version>> versions;
+    /** Committed images of pages written back by running transactions. */
+    private final ConcurrentHashMap<PageId, Page> stolen;
+
+    public VersionStore() {
+        this.lock = new ReentrantReadWriteLock();
+        this.snapshots = new ConcurrentHashMap<TransactionId, Long>();
+        this.versions = new HashMap<PageId, ArrayDeque<Version>>();
+        this.stolen = new ConcurrentHashMap<PageId, Page>();
+    }
+
+    /**
+     * Begins a snapshot for a transaction, which from now on reads the pages
+     * committed so far. Waits for the commits in progress.
+     *
+     * @return the number of the snapshot
+     */
+    public long begin(TransactionId tid) {
+        this.lock.writeLock().lock();
+        try {
+            this.snapshots.put(tid, this.clock);
+            return this.clock;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /** @return true if the transaction reads a snapshot */
+    public boolean isSnapshot(TransactionId tid) {
+        return this.snapshots.containsKey(tid);
+    }
+
+    /**
+     * Ends the snapshot of a transaction, if it has one, and drops the
+     * versions no other snapshot can read.
+     */
+    public void end(TransactionId tid) {
+        if (this.snapshots.remove(tid) == null)
+            return;
+        this.lock.writeLock().lock();
+        try {
+            collect();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts writing the pages of a committing transaction. Must be
+     * followed by {@link #endCommit} once they are written.
+     *
+     * @return the number of the commit, or 0 if no snapshot is active and
+     *         the commit saves no versions
+     */
+    long beginCommit() {
+        this.lock.readLock().lock();
+        if (this.snapshots.isEmpty())
+            return 0;
+        this.lock.readLock().unlock();
+        this.lock.writeLock().lock();
+        return ++this.clock;
+    }
+
+    /** Ends a commit started by {@link #beginCommit}. */
+    void endCommit(long commit) {
+        if (commit == 0)
+            this.lock.readLock().unlock();
+        else
+            this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Saves the version of a page a commit replaces; called between
+     * beginCommit and endCommit, before the new version is written.
+     *
+     * @param committed the committed image of the page before the commit
+     */
+    void save(PageId pid, Page committed, long commit) {
+        this.versions.computeIfAbsent(pid, k -> new ArrayDeque<Version>()).addLast(new Version(commit, committed));
+    }
+
+    /**
+     * Keeps the committed image of a page that is written back before its
+     * transaction ends, unless one is kept already.
+     */
+    void stolen(PageId pid, Page committed) {
+        this.stolen.putIfAbsent(pid, committed);
+    }
+
+    /**
+     * Takes the committed image kept for a page written back early, once
+     * its transaction ends.
+     *
+     * @return the image, or null if none was kept
+     */
+    Page takeStolen(PageId pid) {
+        return this.stolen.remove(pid);
+    }
+
+    /** Reads the last committed image of a page. */
+    interface CommittedReader {
+        Page read(PageId pid) throws DbException;
+    }
+
+    /**
+     * Reads a page as the snapshot of a transaction sees it.
+     *
+     * @param committed reads the last committed image of the page, used if
+     *            no commit replaced it since the snapshot began
+     */
+    public Page read(TransactionId tid, PageId pid, CommittedReader committed) throws DbException {
+        Long snapshot = this.snapshots.get(tid);
+        if (snapshot == null)
+            throw new DbException("transaction " + tid.getId() + " has no snapshot");
+        this.lock.readLock().lock();
+        try {
+            ArrayDeque<Version> vs = this.versions.get(pid);
+            if (vs != null) {
+                for (Version v : vs)
+                    if (v.until > snapshot)
+                        return v.page;
+            }
+            Page p = this.stolen.get(pid);
+            if (p != null)
+                return p;
+            p = committed.read(pid);
+            // written back since it was looked up: the file has the new image
+            Page s = this.stolen.get(pid);
+            return s != null ? s : p;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** Drops the versions no active snapshot can read; caller holds the write lock. */
+    private void collect() {
+        long oldest = Long.MAX_VALUE;
+        for (long s : this.snapshots.values())
+            oldest = Math.min(oldest, s);
+        for (Iterator<Map.Entry<PageId, ArrayDeque<Version>>> it = this.versions.entrySet().iterator(); it.hasNext(); ) {
+            ArrayDeque<Version> vs = it.next().getValue();
+            while (!vs.isEmpty() && vs.peekFirst().until <= oldest)
+                vs.pollFirst();
+            if (vs.isEmpty())
+                it.remove();
+        }
+    }
+
+    /** @return the number of active snapshots */
+    public int getSnapshotCount() {
+        return this.snapshots.size();
+    }
+
+    /** @return the number of page versions kept for snapshots */
+    public int getVersionCount() {
+        this.lock.readLock().lock();
+        try {
+            int n = 0;
+            for (ArrayDeque<Version> vs : this.versions.values())
+                n += vs.size();
+            return n;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VersionStore(snapshots=" + getSnapshotCount() + " versions=" + getVersionCount() + ")";
+    }
+}
@@ -0,0 +1,610 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+
+    private HeapFile file;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, file.numPages());
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(file.getId(), pageNo);
+    }
+
+    /**
+     * Concurrent readers of a pool smaller than the table see one cached
+     * version of each page and never exceed the budget.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(PAGES / 2);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < 20; j++) {
+                                HeapPageId pid = pid(r.nextInt(PAGES));
+                                Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                                assertEquals(pid, p.getId());
+                                assertTrue(bp.getUsedBytes() <= bp.getCapacityBytes());
+                            }
+                            bp.transactionComplete(tid);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        TransactionId tid = new TransactionId();
+        Page p = bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        assertSame(p, bp.getPage(tid, pid(3), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Eviction only picks clean pages and fails once every frame is dirty,
+     * whatever the replacement policy.
+     */
+    @Test public void evictionSkipsDirtyPages() throws Exception {
+        for (BufferPool.Policy policy : BufferPool.Policy.values()) {
+            BufferPool bp = Database.resetBufferPool(3, policy);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 2; i++) {
+                Page p = bp.getPage(tid, pid(i), Permissions.READ_WRITE);
+                p.markDirty(true, tid);
+            }
+            for (int i = 2; i < PAGES; i++)
+                bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            assertTrue(policy.toString(), bp.isResident(pid(0)));
+            assertTrue(policy.toString(), bp.isResident(pid(1)));
+            assertTrue(policy.toString(), bp.isResident(pid(PAGES - 1)));
+            assertEquals(3L * BufferPool.getPageSize(), bp.getUsedBytes());
+
+            bp.getPage(tid, pid(PAGES - 1), Permissions.READ_WRITE).markDirty(true, tid);
+            try {
+                bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+                fail("expected the pool to be full of dirty pages with " + policy);
+            } catch (DbException e) {
+                // expected
+            }
+            bp.transactionComplete(tid, false);
+        }
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Deletes the first tuple of every page in a transaction. */
+    private TransactionId deleteFromEveryPage(BufferPool bp) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++) {
+            Tuple t = ((HeapPage) bp.getPage(tid, pid(i), Permissions.READ_WRITE)).iterator().next();
+            bp.deleteTuple(tid, t);
+        }
+        return tid;
+    }
+
+    /**
+     * Under STEAL a transaction dirtying more pages than the pool holds
+     * spills them to disk; an abort undoes them from the log.
+     */
+    @Test public void stealSpillsDirtyPages() throws Exception {
+        for (boolean commit : new boolean[] { false, true }) {
+            BufferPool bp = Database.resetBufferPool(3, BufferPool.Policy.LRU);
+            bp.setSteal(true);
+            TransactionId tid = deleteFromEveryPage(bp);
+            assertEquals(1, ((HeapPage) file.readPage(pid(0))).getNumEmptySlots());
+            assertTrue(Database.getLogFile().isActive(tid));
+            bp.transactionComplete(tid, commit);
+            assertFalse(Database.getLogFile().isActive(tid));
+
+            tid = new TransactionId();
+            assertEquals(commit ? 503 * PAGES : 504 * PAGES, count(tid));
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Committing writes the transaction's pages without locking the pool,
+     * so it is not held up by another thread holding the pool's monitor.
+     */
+    @Test public void commitDoesNotLockThePool() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(PAGES);
+        final TransactionId tid = deleteFromEveryPage(bp);
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            public void run() {
+                synchronized (bp) {
+                    held.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            }
+        };
+        holder.start();
+        held.await();
+        Thread committer = new Thread() {
+            public void run() {
+                try {
+                    bp.transactionComplete(tid);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        committer.start();
+        committer.join(10000);
+        boolean blocked = committer.isAlive();
+        release.countDown();
+        holder.join();
+        committer.join();
+        assertFalse(blocked);
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(1, ((HeapPage) file.readPage(pid(i))).getNumEmptySlots());
+    }
+
+    /**
+     * The page cleaner writes back the dirty pages closest to eviction, so
+     * they can be evicted without a write.
+     */
+    @Test public void pageCleanerWritesColdPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        TransactionId tid = deleteFromEveryPage(bp);
+        assertEquals(0, bp.getPageCleaner().clean());
+        bp.setSteal(true);
+        assertEquals(PAGES / 4, bp.getPageCleaner().clean());
+        // LRU: the first pages touched are the coldest
+        assertNull(bp.getPage(tid, pid(0), Permissions.READ_ONLY).isDirty());
+        assertNotNull(bp.getPage(tid, pid(PAGES - 1), Permissions.READ_ONLY).isDirty());
+        assertEquals(1, ((HeapPage) file.readPage(pid(0))).getNumEmptySlots());
+        assertEquals(0, ((HeapPage) file.readPage(pid(PAGES - 1))).getNumEmptySlots());
+        bp.transactionComplete(tid, false);
+        assertEquals(0, ((HeapPage) file.readPage(pid(0))).getNumEmptySlots());
+
+        tid = deleteFromEveryPage(bp);
+        PageCleaner cleaner = bp.getPageCleaner();
+        cleaner.setIntervalMillis(1);
+        cleaner.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cleaner.getWrittenCount() < PAGES / 4 + 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        cleaner.stop();
+        assertFalse(cleaner.isRunning());
+        assertTrue(cleaner.getWrittenCount() > PAGES / 4);
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(503 * PAGES, count(tid));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * CLOCK gives a page hit since the last sweep a second chance.
+     */
+    @Test public void clockSecondChance() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3, BufferPool.Policy.CLOCK);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        // the first sweep cleared every bit and took page 0
+        assertFalse(bp.isResident(pid(0)));
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(4), Permissions.READ_ONLY);
+        assertTrue(bp.isResident(pid(1)));
+        assertFalse(bp.isResident(pid(2)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * LRU-2 keeps pages used twice over pages a scan touches once, which
+     * plain LRU evicts.
+     */
+    @Test public void lru2ScanResistance() throws Exception {
+        for (BufferPool.Policy policy : new BufferPool.Policy[] { BufferPool.Policy.LRU_2, BufferPool.Policy.LRU }) {
+            BufferPool bp = Database.resetBufferPool(4, policy);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 2; i++) {
+                bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+                bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+            }
+            for (int i = 2; i < PAGES; i++)
+                bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            boolean lru2 = policy == BufferPool.Policy.LRU_2;
+            assertEquals(policy.toString(), lru2, bp.isResident(pid(0)));
+            assertEquals(policy.toString(), lru2, bp.isResident(pid(1)));
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * A scan of a table larger than the pool reads it through a small ring
+     * and leaves the pages other transactions use cached.
+     */
+    @Test public void scanRingKeepsHotPages() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        for (boolean rings : new boolean[] { true, false }) {
+            BufferPool bp = Database.resetBufferPool(PAGES / 2);
+            bp.getReadAhead().setBufferRings(rings);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 3; i++)
+                bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+            SeqScan scan = new SeqScan(tid, file.getId(), "t");
+            scan.open();
+            int count = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.close();
+            assertEquals(504 * PAGES, count);
+
+            for (int i = 0; i < 3; i++)
+                assertEquals(rings, bp.isResident(new HeapPageId(hot.getId(), i)));
+            assertTrue(bp.isResident(pid(PAGES - 1)));
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * An off-heap pool keeps its pages in arena frames, reclaims the frames
+     * of evicted pages once their transaction completes, and the tuples it
+     * handed out keep their values after their frame is reused.
+     */
+    @Test public void offHeapFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPoolOffHeap((long) PAGES / 2 * BufferPool.getPageSize());
+        FrameArena arena = bp.getFrameArena();
+        assertEquals(PAGES / 2, arena.getNumFrames());
+
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertTrue(first.hasFrame());
+        Tuple kept = first.iterator().next();
+        int value = kept.getInt(0);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < PAGES; i++) {
+            Tuple t = ((HeapPage) bp.getPage(tid, pid(i), Permissions.READ_ONLY)).iterator().next();
+            expected.add(t.getInt(1));
+        }
+        // the evicted pages are still locked, so their frames are not reused yet
+        assertTrue(first.hasFrame());
+        bp.transactionComplete(tid);
+        assertFalse(first.hasFrame());
+        assertEquals(value, kept.getInt(0));
+        // once the arena ran out pages were read onto the heap; no frame leaked
+        tid = new TransactionId();
+        int framed = 0;
+        for (int i = 0; i < PAGES; i++) {
+            if (bp.isResident(pid(i)) && ((HeapPage) bp.getPage(tid, pid(i), Permissions.READ_ONLY)).hasFrame())
+                framed++;
+        }
+        bp.transactionComplete(tid);
+        assertEquals(arena.getNumFrames(), arena.getFreeFrames() + framed);
+
+        tid = new TransactionId();
+        for (int i = PAGES - 1; i >= 0; i--) {
+            Tuple t = ((HeapPage) bp.getPage(tid, pid(i), Permissions.READ_ONLY)).iterator().next();
+            assertEquals(expected.get(i).intValue(), t.getInt(1));
+        }
+        bp.transactionComplete(tid);
+        assertEquals(value, kept.getInt(0));
+
+        // changes go to the frame and the before image is taken on the first one
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        assertTrue(page.hasFrame());
+        byte[] before = page.getPageData();
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        bp.transactionComplete(tid, false);
+        assertArrayEquals(before, bp.getPage(new TransactionId(), pid(0), Permissions.READ_ONLY).getPageData());
+    }
+
+    /**
+     * Statistics count hits, misses, evictions and flushes per table and
+     * category of page.
+     */
+    @Test public void statistics() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES / 2);
+        BufferPoolStats stats = bp.getStats();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        for (int i = PAGES - 1; i >= PAGES / 2; i--)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        BufferPoolStats.Counters heap = stats.get(file.getId(), BufferPoolStats.Category.HEAP);
+        assertEquals(PAGES / 2, heap.getHits());
+        assertEquals(PAGES, heap.getMisses());
+        assertEquals(PAGES / 2, heap.getEvictions());
+        assertEquals((long) PAGES * BufferPool.getPageSize(), heap.getBytesRead());
+        assertEquals(1.0 / 3, heap.getHitRatio(), 1e-9);
+        assertEquals(0, stats.get(file.getId(), BufferPoolStats.Category.BTREE_LEAF).getMisses());
+
+        tid = new TransactionId();
+        Tuple t = ((HeapPage) bp.getPage(tid, pid(PAGES - 1), Permissions.READ_WRITE)).iterator().next();
+        bp.deleteTuple(tid, t);
+        bp.transactionComplete(tid);
+        BufferPoolStats.Counters total = stats.getTotal();
+        assertEquals(1, total.getFlushes());
+        assertEquals(BufferPool.getPageSize(), total.getBytesWritten());
+        assertEquals(total.getHits(), stats.getTable(file.getId()).getHits());
+        assertTrue(stats.dump().contains("heap: hits="));
+
+        stats.reset();
+        assertEquals(0, stats.getTotal().getMisses());
+    }
+
+    /**
+     * Pinned frames are never evicted, pins are released on unpin or when
+     * their transaction completes, and write-back skips a page latched
+     * exclusively.
+     */
+    @Test public void pinsAndLatches() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        BufferPool.Frame first = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, first.getPinCount());
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertTrue(bp.isResident(pid(0)));
+        bp.unpinPage(tid, first);
+        assertEquals(0, first.getPinCount());
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertFalse(bp.isResident(pid(0)));
+
+        // every frame pinned: nothing to evict
+        for (int i = 0; i < 3; i++)
+            bp.pinPage(tid, pid(i), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+            fail("expected the pool to be full");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        // the cleaner does not write a page while it is being changed
+        bp = Database.resetBufferPool(PAGES);
+        bp.setSteal(true);
+        tid = new TransactionId();
+        BufferPool.Frame frame = bp.pinPage(tid, pid(0), Permissions.READ_WRITE);
+        HeapPage page = (HeapPage) frame.getPage();
+        frame.latchExclusive();
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        final PageCleaner cleaner = bp.getPageCleaner();
+        final int[] written = new int[1];
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    written[0] = cleaner.clean();
+                } catch (Exception e) {
+                    written[0] = -1;
+                }
+            }
+        };
+        other.start();
+        other.join();
+        assertEquals(0, written[0]);
+        frame.unlatchExclusive();
+        assertEquals(1, bp.getPageCleaner().clean());
+        bp.unpinPage(tid, frame);
+        bp.transactionComplete(tid, false);
+        assertEquals(0, ((HeapPage) file.readPage(pid(0))).getNumEmptySlots());
+    }
+
+    /**
+     * A pool in use shrinks by evicting clean pages, keeps dirty pages until
+     * their transaction completes unless STEAL writes them back, and grows.
+     */
+    @Test public void resizeOnline() throws Exception {
+        for (boolean steal : new boolean[] { false, true }) {
+            BufferPool bp = Database.resetBufferPool(PAGES);
+            bp.setSteal(steal);
+            TransactionId reader = new TransactionId();
+            for (int i = 0; i < PAGES; i++)
+                bp.getPage(reader, pid(i), Permissions.READ_ONLY);
+            bp.transactionComplete(reader);
+            TransactionId writer = new TransactionId();
+            for (int i = 0; i < 2; i++) {
+                Tuple t = ((HeapPage) bp.getPage(writer, pid(i), Permissions.READ_WRITE)).iterator().next();
+                bp.deleteTuple(writer, t);
+            }
+
+            assertEquals(steal, bp.resize(1));
+            assertEquals(1, bp.getCapacity());
+            assertEquals((steal ? 1L : 2L) * BufferPool.getPageSize(), bp.getUsedBytes());
+            bp.transactionComplete(writer);
+            assertTrue(bp.getUsedBytes() <= bp.getCapacityBytes());
+
+            assertTrue(bp.resizeBytes((long) PAGES * BufferPool.getPageSize()));
+            assertEquals(PAGES, bp.getCapacity());
+            reader = new TransactionId();
+            assertEquals(504 * PAGES - 2, count(reader));
+            for (int i = 0; i < PAGES; i++)
+                assertTrue(bp.isResident(pid(i)));
+            bp.transactionComplete(reader);
+            Database.resetBufferPool(PAGES);
+            file = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        }
+    }
+
+    /**
+     * The ids of the cached pages survive a restart in a dump, and are read
+     * back in file order until the new pool is full.
+     */
+    @Test public void dumpAndWarmUp() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 8; i >= 3; i--)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        File dump = File.createTempFile("bufferpool", BufferPoolDump.SUFFIX);
+        dump.deleteOnExit();
+        assertEquals(6, BufferPoolDump.dump(bp, dump));
+        FileWriter out = new FileWriter(dump, true);
+        out.write("NoSuchPageId 1 2\n" + HeapPageId.class.getName() + " " + file.getId() + " " + PAGES + "\n");
+        out.close();
+        List<PageId> ids = BufferPoolDump.read(dump);
+        assertEquals(7, ids.size());
+        for (int i = 0; i < 6; i++)
+            assertEquals(pid(i + 3), ids.get(i));
+
+        bp = Database.resetBufferPool(4);
+        BufferPoolDump.Loader loader = BufferPoolDump.load(bp, dump);
+        loader.join();
+        assertEquals(4, loader.getLoadedCount());
+        for (int i = 3; i <= 6; i++)
+            assertTrue(bp.isResident(pid(i)));
+        assertFalse(bp.isResident(pid(7)));
+        // the loader keeps no locks
+        tid = new TransactionId();
+        bp.getPage(tid, pid(3), Permissions.READ_WRITE);
+        bp.transactionComplete(tid);
+
+        assertNull(BufferPoolDump.load(bp, new File(dump.getPath() + ".missing")));
+    }
+
+    /**
+     * A snapshot transaction reads the pages committed when it began without
+     * taking locks: it is not blocked by a writer holding every page, does
+     * not see the writer's changes, before or after they commit, even once
+     * written back early under STEAL, and the versions kept for it are
+     * dropped once it ends.
+     */
+    @Test public void snapshotReads() throws Exception {
+        for (boolean steal : new boolean[] { false, true }) {
+            BufferPool bp = Database.resetBufferPool(steal ? 3 : PAGES);
+            bp.setSteal(steal);
+            TransactionId reader = new TransactionId();
+            bp.beginSnapshot(reader);
+            TransactionId writer = deleteFromEveryPage(bp);
+            assertEquals(504 * PAGES, count(reader));
+            assertFalse(bp.holdsLock(reader, pid(0)));
+            try {
+                bp.getPage(reader, pid(0), Permissions.READ_WRITE);
+                fail("a snapshot transaction should not write");
+            } catch (DbException e) {
+                // expected
+            }
+
+            bp.transactionComplete(writer);
+            assertEquals(PAGES, bp.getVersionStore().getVersionCount());
+            assertEquals(504 * PAGES, count(reader));
+            TransactionId later = new TransactionId();
+            bp.beginSnapshot(later);
+            SeqScan scan = new SeqScan(later, file.getId(), "");
+            scan.open();
+            int n = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            scan.close();
+            assertEquals(503 * PAGES, n);
+
+            bp.transactionComplete(reader);
+            assertEquals(0, bp.getVersionStore().getVersionCount());
+            assertEquals(503 * PAGES, count(later));
+            bp.transactionComplete(later);
+            assertEquals(0, bp.getVersionStore().getSnapshotCount());
+
+            // put the deleted tuples back for the second round
+            file = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        }
+    }
+
+    /**
+     * A snapshot does not see the tuples a bulk load appends straight to the
+     * file, neither while the load runs nor after it commits.
+     */
+    @Test public void snapshotBulkLoad() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(504 * PAGES, count(reader));
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 + 10; i++)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        TupleIterator it = new TupleIterator(file.getTupleDesc(), tuples);
+        it.open();
+        TransactionId loader = new TransactionId();
+        assertEquals(tuples.size(), file.bulkLoad(loader, it));
+        it.close();
+        assertEquals(PAGES + 2, file.numPages());
+        assertEquals(504 * PAGES, count(reader));
+
+        bp.transactionComplete(loader);
+        assertEquals(2, bp.getVersionStore().getVersionCount());
+        assertEquals(504 * PAGES, count(reader));
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(504 * PAGES + tuples.size(), count(later));
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.category()
+     */
+    @Test public void category() {
+        assertEquals(0, FreeSpaceMap.category(0, 504));
+        assertEquals(1, FreeSpaceMap.category(1, 504));
+        assertEquals(254, FreeSpaceMap.category(504, 504));
+    }
+
+    /**
+     * Inserts should go straight to a page with room, without locking full pages.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        for (int i = 0; i < 504 * 3; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.get(0));
+        assertEquals(0, fsm.get(1));
+        assertEquals(0, fsm.get(2));
+
+        // free a slot on the last page and insert into it
+        tid = new TransactionId();
+        Tuple victim = null;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, fsm.get(2));
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, empty.numPages());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertEquals(0, fsm.get(2));
+    }
+
+    /**
+     * Aborting an insert restores the free space of the page.
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(FreeSpaceMap.category(503, 504), empty.getFreeSpaceMap().get(0));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(FreeSpaceMap.category(504, 504), empty.getFreeSpaceMap().get(0));
+        tid = new TransactionId();
+    }
+
+    /**
+     * Aborting an insert that filled a cached page marks the page as having
+     * room again, in the map and in its side file.
+     */
+    @Test public void abortRestoresFullPage() throws Exception {
+        for (int i = 0; i < 503; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, empty.getFreeSpaceMap().get(0));
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(503, 2));
+        assertEquals(0, empty.getFreeSpaceMap().get(0));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(1, empty.getFreeSpaceMap().get(0));
+        tid = new TransactionId();
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(1, reopened.getFreeSpaceMap().get(0));
+    }
+
+    /**
+     * The map is persisted next to the heap file and read back by a new HeapFile.
+     */
+    @Test public void persistence() throws Exception {
+        for (int i = 0; i < 504 + 1; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(0, reopened.getFreeSpaceMap().get(0));
+        assertEquals(FreeSpaceMap.category(503, 504), reopened.getFreeSpaceMap().get(1));
+        assertEquals(1, reopened.getFreeSpaceMap().findPageWithFreeSpace(0, reopened.numPages()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -121,6 +121,41 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode, including
+     * pages appended after the file was first mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 520, null, tuples);
+        mapped.setMemoryMapped(true);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(2, mapped.numPages());
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        HeapPage page = new HeapPage(new HeapPageId(mapped.getId(), 2), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        mapped.writePage(page);
+        HeapPage read = (HeapPage) mapped.readPage(page.getId());
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertTrue(read.isSlotUsed(0));
+
+        // a mapped page is copied when modified, leaving the file alone
+        read.insertTuple(Utility.getHeapTuple(new int[] {9, 10}));
+        assertTrue(read.isSlotUsed(1));
+        assertFalse(((HeapPage) mapped.readPage(page.getId())).isSlotUsed(1));
+
+        // closing drops the mapping; it is remapped on the next read, and
+        // pages read before stay valid
+        HeapPage first = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 0));
+        mapped.close();
+        read = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 0));
+        assertEquals(0, read.getNumEmptySlots());
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(read.getTuple(0).getField(0), first.getTuple(0).getField(0));
+    }
+
     /**
      * JUnit suite target
      */
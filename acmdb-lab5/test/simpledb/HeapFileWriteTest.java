@@ -1,5 +1,10 @@
 package simpledb;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +48,59 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.bulkLoad()
+     */
+    @Test public void bulkLoad() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 10; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        TupleIterator it = new TupleIterator(empty.getTupleDesc(), tuples);
+        it.open();
+        assertEquals(tuples.size(), empty.bulkLoad(tid, it));
+        it.close();
+
+        // the load appends whole pages after the existing empty page
+        assertEquals(4, empty.numPages());
+        assertEquals(new HeapPageId(empty.getId(), 1), tuples.get(0).getRecordId().getPageId());
+        assertEquals(3, tuples.get(tuples.size() - 1).getRecordId().getPageId().pageNumber());
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 3)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator scan = empty.iterator(tid);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertEquals(count, ((IntField) scan.next().getField(0)).getValue());
+            count++;
+        }
+        scan.close();
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * Aborting a bulk load leaves no tuples behind.
+     */
+    @Test public void bulkLoadAbort() throws Exception {
+        File csv = File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(csv));
+        for (int i = 0; i < 600; ++i)
+            pw.println(i + "," + (i * 2));
+        pw.close();
+
+        assertEquals(600, empty.bulkLoad(tid, csv, ','));
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        DbFileIterator scan = empty.iterator(tid);
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+    }
+
     /**
      * JUnit suite target
      */
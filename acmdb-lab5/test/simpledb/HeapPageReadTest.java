@@ -12,6 +12,8 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -119,6 +121,22 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField() and HeapPage.getInt(), which decode
+     * single fields straight from the page bytes.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; ++row) {
+            assertEquals(EXAMPLE_VALUES[row][1], page.getInt(row, 1));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][0]), page.getField(row, 0));
+        }
+        assertNull(page.getTuple(20));
+        Tuple t = page.getTuple(3);
+        assertEquals(3, t.getRecordId().tupleno());
+        assertSame(t, page.getTuple(3));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,418 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0, p1;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+    }
+
+    /** Requests a lock in its own thread. */
+    private class Requester extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Requester(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.lock(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /** Waits until the request is granted, fails or waits for a lock. */
+        void settle() throws InterruptedException {
+            for (int i = 0; i < 100 && isAlive() && getState() != State.WAITING; i++)
+                Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Requests are granted in arrival order: a shared request does not
+     * overtake a waiting exclusive one, and waiters sleep.
+     */
+    @Test public void fifoGrants() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId(), t3 = new TransactionId();
+        lm.lock(t1, p0, Permissions.READ_ONLY);
+        Requester w = new Requester(t2, p0, Permissions.READ_WRITE);
+        w.settle();
+        Requester r = new Requester(t3, p0, Permissions.READ_ONLY);
+        r.settle();
+        Thread.sleep(TIMEOUT);
+        assertFalse(w.acquired);
+        assertFalse(r.acquired);
+        assertEquals(Thread.State.WAITING, w.getState());
+        assertEquals(Thread.State.WAITING, r.getState());
+
+        lm.transactionFinished(t1);
+        w.join(1000);
+        assertTrue(w.acquired);
+        Thread.sleep(TIMEOUT);
+        assertFalse(r.acquired);
+        lm.transactionFinished(t2);
+        r.join(1000);
+        assertTrue(r.acquired);
+        assertNull(r.error);
+    }
+
+    /**
+     * A holder upgrading its shared lock goes ahead of the waiting requests.
+     */
+    @Test public void upgradeGoesFirst() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId(), t3 = new TransactionId();
+        lm.lock(t1, p0, Permissions.READ_ONLY);
+        lm.lock(t2, p0, Permissions.READ_ONLY);
+        Requester other = new Requester(t3, p0, Permissions.READ_WRITE);
+        other.settle();
+        Requester upgrade = new Requester(t1, p0, Permissions.READ_WRITE);
+        upgrade.settle();
+        assertFalse(upgrade.acquired);
+
+        lm.transactionFinished(t2);
+        upgrade.join(1000);
+        assertTrue(upgrade.acquired);
+        assertTrue(lm.holdsLock(t1, p0));
+        Thread.sleep(TIMEOUT);
+        assertFalse(other.acquired);
+        lm.transactionFinished(t1);
+        other.join(1000);
+        assertTrue(other.acquired);
+
+        // a sole reader upgrades at once
+        TransactionId t4 = new TransactionId();
+        lm.lock(t4, p1, Permissions.READ_ONLY);
+        lm.lock(t4, p1, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(t4, p1));
+    }
+
+    /**
+     * The waiter that closes a cycle is aborted, and the other one proceeds
+     * once the aborted transaction releases its locks.
+     */
+    @Test public void deadlockAborts() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.lock(t1, p0, Permissions.READ_ONLY);
+        lm.lock(t2, p1, Permissions.READ_ONLY);
+        Requester first = new Requester(t1, p1, Permissions.READ_WRITE);
+        first.settle();
+        try {
+            lm.lock(t2, p0, Permissions.READ_WRITE);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.transactionFinished(t2);
+        first.join(1000);
+        assertTrue(first.acquired);
+    }
+
+    /**
+     * When an older transaction closes a cycle, the youngest transaction of
+     * the cycle is woken up and aborted, and the older one keeps waiting.
+     */
+    @Test public void youngestIsVictim() throws Exception {
+        TransactionId older = new TransactionId(), younger = new TransactionId();
+        lm.lock(older, p0, Permissions.READ_ONLY);
+        lm.lock(younger, p1, Permissions.READ_ONLY);
+        Requester victim = new Requester(younger, p0, Permissions.READ_WRITE);
+        victim.settle();
+        Requester survivor = new Requester(older, p1, Permissions.READ_WRITE);
+        victim.join(1000);
+        assertTrue(victim.error instanceof TransactionAbortedException);
+        survivor.settle();
+        assertFalse(survivor.acquired);
+        assertNull(survivor.error);
+
+        lm.transactionFinished(younger);
+        survivor.join(1000);
+        assertTrue(survivor.acquired);
+    }
+
+    /**
+     * Under WAIT_DIE an older transaction waits for a younger one, and a
+     * younger one requesting a lock an older one holds aborts at once.
+     */
+    @Test public void waitDie() throws Exception {
+        lm.setDeadlockPolicy(LockManager.DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId(), younger = new TransactionId();
+        lm.lock(older, p0, Permissions.READ_ONLY);
+        lm.lock(younger, p1, Permissions.READ_ONLY);
+        try {
+            lm.lock(younger, p0, Permissions.READ_WRITE);
+            fail("a younger transaction should not wait for an older one");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(0, lm.getLockTimeout());
+        Requester waiter = new Requester(older, p1, Permissions.READ_WRITE);
+        waiter.settle();
+        assertFalse(waiter.acquired);
+        assertNull(waiter.error);
+        lm.transactionFinished(younger);
+        waiter.join(1000);
+        assertTrue(waiter.acquired);
+    }
+
+    /**
+     * Under WOUND_WAIT a younger transaction waits for an older one, and an
+     * older one wounds the younger ones it would wait for.
+     */
+    @Test public void woundWait() throws Exception {
+        lm.setDeadlockPolicy(LockManager.DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId(), younger = new TransactionId();
+        lm.lock(older, p0, Permissions.READ_ONLY);
+        lm.lock(younger, p1, Permissions.READ_ONLY);
+        Requester young = new Requester(younger, p0, Permissions.READ_WRITE);
+        young.settle();
+        assertFalse(young.acquired);
+        assertNull(young.error);
+
+        // the older request wounds the waiting younger transaction
+        Requester old = new Requester(older, p1, Permissions.READ_WRITE);
+        young.join(1000);
+        assertTrue(young.error instanceof TransactionAbortedException);
+        try {
+            lm.lock(younger, p1, Permissions.READ_WRITE);
+            fail("a wounded transaction should not get more locks");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertFalse(old.acquired);
+        lm.transactionFinished(younger);
+        old.join(1000);
+        assertTrue(old.acquired);
+    }
+
+    /**
+     * Under NO_WAIT a request that cannot be granted at once aborts.
+     */
+    @Test public void noWait() throws Exception {
+        lm.setDeadlockPolicy(LockManager.DeadlockPolicy.NO_WAIT);
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.lock(t2, p0, Permissions.READ_ONLY);
+        lm.lock(t1, p0, Permissions.READ_ONLY);
+        try {
+            lm.lock(t1, p0, Permissions.READ_WRITE);
+            fail("expected an abort instead of waiting");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.transactionFinished(t2);
+        lm.lock(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(t1, p0));
+    }
+
+    /**
+     * A request granted while the waits-for graph is searched is not
+     * aborted, and its lock does not leak when the search picks it as the
+     * victim.
+     */
+    @Test public void grantedDuringSearch() throws Exception {
+        final TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm = new LockManager() {
+            @Override
+            public boolean waitsFor(TransactionId tid, PageLock lock, java.util.Set<TransactionId> holders) {
+                // the holder commits and grants the request before the search ends
+                transactionFinished(t1);
+                return true;
+            }
+        };
+        lm.lock(t1, p0, Permissions.READ_WRITE);
+        lm.lock(t2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(t2, p0));
+        lm.transactionFinished(t2);
+        TransactionId t3 = new TransactionId();
+        assertTrue(lm.tryLock(t3, p0, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Under TIMEOUT a waiter aborts once it waited for the lock timeout,
+     * deadlocked or not.
+     */
+    @Test public void lockTimeout() throws Exception {
+        lm.setDeadlockPolicy(LockManager.DeadlockPolicy.TIMEOUT);
+        lm.setLockTimeout(TIMEOUT);
+        assertEquals(TIMEOUT, lm.getLockTimeout());
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.lock(t1, p0, Permissions.READ_WRITE);
+        long start = System.currentTimeMillis();
+        try {
+            lm.lock(t2, p0, Permissions.READ_ONLY);
+            fail("expected the wait to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= TIMEOUT);
+        assertFalse(lm.holdsLock(t2, p0));
+        lm.transactionFinished(t1);
+        lm.lock(t2, p0, Permissions.READ_ONLY);
+    }
+
+    /**
+     * A table S lock covers the pages of the table and conflicts with page
+     * writers through their IX lock on the table; writers of different
+     * pages only share IX.
+     */
+    @Test public void tableLocks() throws Exception {
+        TransactionId scan = new TransactionId(), w1 = new TransactionId(), w2 = new TransactionId();
+        lm.lock(w1, p0, Permissions.READ_WRITE);
+        lm.lock(w2, p1, Permissions.READ_WRITE);
+        assertEquals(LockMode.IX, lm.getTableMode(w1, 1));
+
+        Requester r = new Requester(scan, p0, Permissions.READ_ONLY) {
+            public void run() {
+                try {
+                    lm.lockTable(tid, 1, Permissions.READ_ONLY);
+                    acquired = true;
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+        };
+        r.settle();
+        assertFalse(r.acquired);
+        lm.transactionFinished(w1);
+        Thread.sleep(TIMEOUT);
+        assertFalse(r.acquired);
+        lm.transactionFinished(w2);
+        r.join(1000);
+        assertTrue(r.acquired);
+
+        // pages are read under the table lock without locking them
+        lm.lock(scan, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(scan, p1));
+        assertFalse(lm.tryLock(w1, p0, Permissions.READ_WRITE));
+        assertTrue(lm.tryLock(w1, p0, Permissions.READ_ONLY));
+
+        // writing under a table S lock converts it to SIX
+        lm.lock(scan, p1, Permissions.READ_WRITE);
+        assertEquals(LockMode.SIX, lm.getTableMode(scan, 1));
+    }
+
+    /**
+     * Readers of a tuple do not conflict with the writer of another tuple of
+     * the page, but do with the writer of the same tuple; writers of one
+     * page wait for each other, since aborts restore whole pages.
+     */
+    @Test public void tupleLocks() throws Exception {
+        final TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        RecordId r0 = new RecordId(p0, 0), r1 = new RecordId(p0, 1);
+        lm.lockTuple(t1, r0, Permissions.READ_WRITE);
+        lm.lockTuple(t2, r1, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(t1, r0));
+        assertTrue(lm.holdsLock(t2, r1));
+        assertFalse(lm.holdsLock(t2, r0));
+        assertFalse(lm.tryLock(t2, p0, Permissions.READ_ONLY));
+
+        Requester reader = new Requester(t2, p0, Permissions.READ_ONLY) {
+            public void run() {
+                try {
+                    lm.lockTuple(tid, new RecordId(p0, 0), Permissions.READ_ONLY);
+                    acquired = true;
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+        };
+        Requester writer = new Requester(new TransactionId(), p0, Permissions.READ_WRITE) {
+            public void run() {
+                try {
+                    lm.lockTuple(tid, new RecordId(p0, 2), Permissions.READ_WRITE);
+                    acquired = true;
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+        };
+        reader.settle();
+        writer.settle();
+        assertFalse(reader.acquired);
+        assertFalse(writer.acquired);
+        lm.transactionFinished(t1);
+        reader.join(1000);
+        writer.join(1000);
+        assertTrue(reader.acquired);
+        assertTrue(writer.acquired);
+        assertTrue(lm.holdsLock(t2, r0));
+    }
+
+    /**
+     * Page locks beyond the escalation threshold are replaced by a table
+     * lock, S for a reader and X for a writer, unless another transaction
+     * holds a conflicting table lock.
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThreshold(3);
+        TransactionId reader = new TransactionId(), writer = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            lm.lock(reader, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(LockMode.S, lm.getTableMode(reader, 1));
+        assertTrue(lm.holdsLock(reader, new HeapPageId(1, 9)));
+        lm.transactionFinished(reader);
+
+        for (int i = 0; i < 4; i++)
+            lm.lock(writer, new HeapPageId(2, i), Permissions.READ_WRITE);
+        assertEquals(LockMode.X, lm.getTableMode(writer, 2));
+        assertFalse(lm.isLocked(new HeapPageId(3, 0)));
+        assertTrue(lm.isLocked(new HeapPageId(2, 9)));
+        lm.transactionFinished(writer);
+        assertFalse(lm.isLocked(new HeapPageId(2, 0)));
+
+        // another reader of the table keeps the writer's page locks
+        TransactionId other = new TransactionId();
+        lm.lock(other, new HeapPageId(2, 9), Permissions.READ_ONLY);
+        for (int i = 0; i < 4; i++)
+            lm.lock(writer, new HeapPageId(2, i), Permissions.READ_WRITE);
+        assertEquals(LockMode.IX, lm.getTableMode(writer, 2));
+        assertTrue(lm.holdsLock(writer, new HeapPageId(2, 0)));
+        lm.transactionFinished(writer);
+
+        // tuple locks count as well, and go with the page locks
+        TransactionId scan = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            lm.lockTuple(scan, new RecordId(new HeapPageId(4, 0), i), Permissions.READ_ONLY);
+        assertEquals(LockMode.S, lm.getTableMode(scan, 4));
+        assertTrue(lm.holdsLock(scan, new RecordId(new HeapPageId(4, 1), 9)));
+        lm.transactionFinished(scan);
+
+        // read-ahead locks pages on another thread and never escalates
+        TransactionId prefetcher = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            assertTrue(lm.tryLock(prefetcher, new HeapPageId(3, i), Permissions.READ_ONLY));
+        assertEquals(LockMode.IS, lm.getTableMode(prefetcher, 3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
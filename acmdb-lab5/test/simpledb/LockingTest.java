@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +187,51 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /** Counts the tuples of the table with a SeqScan of the transaction. */
+  private int count(TransactionId tid) throws Exception {
+    SeqScan scan = new SeqScan(tid, empty.getId(), "");
+    scan.open();
+    int n = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.close();
+    return n;
+  }
+
+  /**
+   * Two transactions that scan the table and then insert into it do not
+   * deadlock: the scans lock the tuples they read under IS rather than the
+   * whole table, and the second insert only waits for the first writer of
+   * the page.
+   */
+  @Test public void scanThenInsert() throws Exception {
+    bp.setLockEscalationThreshold(4096);
+    assertEquals(1025, count(tid1));
+    assertEquals(1025, count(tid2));
+    assertTrue(bp.holdsLock(tid1, new RecordId(p2, 0)));
+    bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+
+    final Exception[] error = new Exception[1];
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(2, 2));
+        } catch (Exception e) {
+          error[0] = e;
+        }
+      }
+    };
+    t.start();
+    t.join(TIMEOUT);
+    assertTrue(t.isAlive());
+    bp.transactionComplete(tid1);
+    t.join();
+    assertNull(error[0]);
+    bp.transactionComplete(tid2);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int LARGE = 4 * 4096;
+
+    private TupleDesc td;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new String[] { "a", "b" });
+    }
+
+    private File tempFile(String prefix) throws Exception {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(-i));
+        return t;
+    }
+
+    private int count(TransactionId tid, DbFile file) throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(-t.getInt(0), t.getInt(1));
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A table with its own page size lays out and stores pages of that size.
+     */
+    @Test public void heapFilePageSize() throws Exception {
+        HeapFile large = new HeapFile(tempFile("large"), td, false, LARGE);
+        HeapFile small = new HeapFile(tempFile("small"), td);
+        Database.getCatalog().addTable(large, "large");
+        Database.getCatalog().addTable(small, "small");
+        assertEquals(LARGE, Database.getCatalog().getPageSize(large.getId()));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(small.getId()));
+
+        HeapPage page = new HeapPage(new HeapPageId(large.getId(), 0), HeapPage.createEmptyPageData(LARGE));
+        assertEquals(HeapPage.getNumSlots(td, LARGE), page.getNumSlots());
+        assertEquals(LARGE, page.getPageData().length);
+
+        int rows = HeapPage.getNumSlots(td, LARGE) + 1;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, large.getId(), tuple(i));
+            Database.getBufferPool().insertTuple(tid, small.getId(), tuple(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, large.numPages());
+        assertEquals(2L * LARGE, large.getFile().length());
+        assertTrue(small.numPages() > 2);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(rows, count(tid, large));
+        assertEquals(rows, count(tid, small));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * B+ tree leaf, internal and header pages follow the page size of their file.
+     */
+    @Test public void btreeFilePageSize() throws Exception {
+        BTreeFile bf = new BTreeFile(tempFile("btree"), 0, td, 1024);
+        Database.getCatalog().addTable(bf, "btree");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, bf.getId(), tuple((i * 7919) % 2000));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(BTreeRootPtrPage.getPageSize() + (long) bf.numPages() * 1024, bf.getFile().length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext())
+            assertEquals(n++, it.next().getInt(0));
+        it.close();
+        assertEquals(2000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A byte budget holds fewer pages of tables with larger pages.
+     */
+    @Test public void byteBudget() throws Exception {
+        HeapFile large = new HeapFile(tempFile("large"), td, false, LARGE);
+        Database.getCatalog().addTable(large, "large");
+        TransactionId tid = new TransactionId();
+        int rows = HeapPage.getNumSlots(td, LARGE) * 10;
+        for (int i = 0; i < rows; i++)
+            Database.getBufferPool().insertTuple(tid, large.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        BufferPool bp = Database.resetBufferPoolBytes(3L * LARGE);
+        assertEquals(3L * LARGE, bp.getCapacityBytes());
+        assertEquals(3 * LARGE / BufferPool.getPageSize(), bp.getCapacity());
+        tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+            assertTrue(bp.getUsedBytes() <= bp.getCapacityBytes());
+        }
+        assertEquals(3L * LARGE, bp.getUsedBytes());
+        assertTrue(bp.isResident(new HeapPageId(large.getId(), 9)));
+        assertFalse(bp.isResident(new HeapPageId(large.getId(), 0)));
+        bp.transactionComplete(tid);
+
+        // a page budget is counted in pages of the default size
+        bp = Database.resetBufferPool(3);
+        assertEquals(3L * BufferPool.getPageSize(), bp.getCapacityBytes());
+    }
+
+    /**
+     * The catalog accepts a page size option after the storage format.
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(schema));
+        out.println("big (a int, b int) heap pagesize=8192");
+        out.println("packed (a int, b string) slotted pagesize=2048");
+        out.println("plain (a int)");
+        out.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        Catalog c = Database.getCatalog();
+        assertEquals(8192, c.getPageSize(c.getTableId("big")));
+        assertTrue(c.getDatabaseFile(c.getTableId("packed")) instanceof SlottedHeapFile);
+        assertEquals(2048, c.getPageSize(c.getTableId("packed")));
+        assertEquals(BufferPool.getPageSize(), c.getPageSize(c.getTableId("plain")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+
+    private TupleDesc td;
+    private PaxFile file;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "c", "d" });
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        file = new PaxFile(f, td);
+        Database.getCatalog().addTable(file, "pax");
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(i * 2));
+        t.setField(3, new IntField(i % 7));
+        return t;
+    }
+
+    /**
+     * A page stores the same number of tuples as a HeapPage, column by column.
+     */
+    @Test public void pageLayout() throws Exception {
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData());
+        assertEquals(HeapPage.getNumSlots(td), page.getNumSlots());
+        Tuple t0 = tuple(5);
+        Tuple t1 = tuple(6);
+        page.insertTuple(t0);
+        page.insertTuple(t1);
+        page.deleteTuple(t0);
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        assertEquals(page.getNumSlots() - 1, copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(0));
+        assertEquals(12, copy.getInt(1, 2));
+        assertEquals(new StringField("s6", Type.STRING_LEN), copy.getField(1, 1));
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(td, t.getTupleDesc());
+        assertEquals(1, t.getRecordId().tupleno());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A projected scan only returns the requested fields, in order.
+     */
+    @Test public void projectedScan() throws Exception {
+        DbFileIterator it = file.iterator(tid, new int[] { 2, 0 });
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals("c", t.getTupleDesc().getFieldName(0));
+            int a = ((IntField) t.getField(1)).getValue();
+            assertEquals(a * 2, ((IntField) t.getField(0)).getValue());
+            assertNotNull(t.getRecordId());
+            count++;
+        }
+        it.rewind();
+        assertTrue(it.hasNext());
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Projected scans feed the usual operators unchanged.
+     */
+    @Test public void operatorsOverProjectedScan() throws Exception {
+        SeqScan scan = new SeqScan(tid, file.getId(), "p", new int[] { 3, 2 });
+        assertEquals("p.d", scan.getTupleDesc().getFieldName(0));
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)), scan);
+        Aggregate agg = new Aggregate(filter, 1, -1, Aggregator.Op.COUNT);
+        agg.open();
+        assertTrue(agg.hasNext());
+        int expected = 0;
+        for (int i = 0; i < ROWS; i++)
+            if (i % 7 == 3) expected++;
+        assertEquals(expected, ((IntField) agg.next().getField(0)).getValue());
+        agg.close();
+    }
+
+    /**
+     * Deletes through a projected tuple, and aborts restore the page.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        DbFileIterator it = file.iterator(tid, new int[] { 0 });
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext() && victims.size() < 10)
+            victims.add(it.next());
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS, count());
+        it = file.iterator(tid, new int[] { 0 });
+        it.open();
+        victims.clear();
+        while (it.hasNext() && victims.size() < 10)
+            victims.add(it.next());
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(ROWS - 10, count());
+    }
+
+    private int count() throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 30;
+
+    /** Counts the number of readPage operations. */
+    class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            synchronized (this) {
+                readCount += 1;
+            }
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    private InstrumentedHeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A sequential scan should have its pages read ahead, and every page should
+     * still be read from disk exactly once.
+     */
+    @Test public void sequentialScan() throws Exception {
+        ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+        SystemTestUtil.matchTuples(table, tuples);
+
+        assertEquals(PAGES, table.readCount);
+        assertTrue(readAhead.getIssuedCount() > 0);
+        assertTrue(readAhead.getUsedCount() > 0);
+        assertTrue(readAhead.getUsedCount() + readAhead.getWastedCount() <= readAhead.getIssuedCount());
+    }
+
+    /**
+     * Read-ahead must not take locks it would have to wait for.
+     */
+    @Test public void skipsLockedPages() throws Exception {
+        TransactionId writer = new TransactionId();
+        for (int i = 2; i < PAGES; i++)
+            Database.getBufferPool().getPage(writer, new HeapPageId(table.getId(), i), Permissions.READ_WRITE);
+
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = table.iterator(reader);
+        it.open();
+        int count = 0;
+        while (count < 992 * 2 && it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * 2, count);
+        for (int i = 2; i < PAGES; i++)
+            assertFalse(Database.getBufferPool().holdsLock(reader, new HeapPageId(table.getId(), i)));
+
+        Database.getBufferPool().transactionComplete(reader);
+        Database.getBufferPool().transactionComplete(writer);
+    }
+
+    /**
+     * Disabled read-ahead should not issue any reads.
+     */
+    @Test public void disabled() throws Exception {
+        ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+        readAhead.setEnabled(false);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+        assertEquals(0, readAhead.getIssuedCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedHeapFile file;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        file = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(file, "slotted");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Records take only the bytes they need, and deleted space is reclaimed
+     * by compaction without changing the slot of surviving tuples.
+     */
+    @Test public void pageInsertDeleteCompact() throws Exception {
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(SlottedPage.getCapacity(), page.getFreeSpace());
+
+        Tuple a = tuple(1, "a");
+        assertEquals(4 + 2 + 1, SlottedPage.getRecordSize(a));
+        page.insertTuple(a);
+        assertEquals(SlottedPage.getCapacity() - 7 - SlottedPage.SLOT_SIZE, page.getFreeSpace());
+
+        // fill the page with long records
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        String longName = new String(new char[100]).replace('\0', 'x');
+        while (page.hasRoomFor(tuple(0, longName))) {
+            Tuple t = tuple(inserted.size(), longName);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        try {
+            page.insertTuple(tuple(0, longName));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // free two records in the middle; the new one only fits after compaction
+        Tuple last = inserted.get(inserted.size() - 1);
+        page.deleteTuple(inserted.get(3));
+        page.deleteTuple(inserted.get(5));
+        String longerName = new String(new char[120]).replace('\0', 'y');
+        Tuple big = tuple(-1, longerName);
+        assertTrue(page.hasRoomFor(big));
+        page.insertTuple(big);
+        assertEquals(4, big.getRecordId().tupleno());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        int count = 0;
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().tupleno();
+            if (slot == 0) {
+                assertEquals("a", ((StringField) t.getField(1)).getValue());
+            } else if (slot == 4) {
+                assertEquals(longerName, ((StringField) t.getField(1)).getValue());
+            } else if (slot == last.getRecordId().tupleno()) {
+                assertEquals(last.getField(0), t.getField(0));
+            }
+            count++;
+        }
+        assertEquals(inserted.size(), count);
+        assertFalse(copy.isSlotUsed(6));
+    }
+
+    /**
+     * Short strings should take far fewer pages than in a HeapFile.
+     */
+    @Test public void fewerPagesThanHeapFile() throws Exception {
+        int n = 2000;
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, "name" + i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        int heapPages = (n + HeapPage.getNumSlots(td) - 1) / HeapPage.getNumSlots(td);
+        assertTrue(file.numPages() * 5 <= heapPages);
+
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("name" + ((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.rewind();
+        assertTrue(it.hasNext());
+        it.close();
+        assertEquals(n, count);
+    }
+
+    /**
+     * Deleted space is reused by later inserts, and aborts restore the page.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = tuple(i, "some string " + i);
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            tuples.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = file.numPages();
+
+        tid = new TransactionId();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(300, count(file, tid));
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        ArrayList<Tuple> live = new ArrayList<Tuple>();
+        while (it.hasNext())
+            live.add(it.next());
+        it.close();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().deleteTuple(tid, live.get(i));
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(1000 + i, "other " + i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, file.numPages());
+
+        tid = new TransactionId();
+        assertEquals(300, count(file, tid));
+    }
+
+    private static int count(DbFile f, TransactionId tid) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The storage format can be selected per table in the catalog file.
+     */
+    @Test public void catalogFormat() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(schema));
+        w.println("plain (a int, b string)");
+        w.println("packed (a int, b string) slotted");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int plain = Database.getCatalog().getTableId("plain");
+        int packed = Database.getCatalog().getTableId("packed");
+        assertTrue(Database.getCatalog().getDatabaseFile(plain) instanceof HeapFile);
+        assertTrue(Database.getCatalog().getDatabaseFile(packed) instanceof SlottedHeapFile);
+        new File(schema.getParent(), "plain.dat").deleteOnExit();
+        new File(schema.getParent(), "packed.dat").deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
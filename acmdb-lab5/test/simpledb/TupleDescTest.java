@@ -67,6 +67,20 @@ public class TupleDescTest extends SimpleDbTestBase {
         return true;
     }
 
+    /**
+     * Unit test for TupleDesc.project()
+     */
+    @Test public void project() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "c" });
+        TupleDesc p = td.project(new int[] { 2, 1 });
+        assertEquals(2, p.numFields());
+        assertEquals(Type.INT_TYPE, p.getFieldType(0));
+        assertEquals(Type.STRING_TYPE, p.getFieldType(1));
+        assertEquals("c", p.getFieldName(0));
+        assertEquals("b", p.getFieldName(1));
+    }
+
     /**
      * Unit test for TupleDesc.getType()
      */
@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -68,6 +70,68 @@ public class TupleTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleView: a view over bytes that are not copied.
+     */
+    @Test public void tupleView() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        ByteBuffer buf = ByteBuffer.allocate(8 + td.getSize());
+        int offset = 8;
+        buf.putInt(offset, 42);
+        buf.putInt(offset + 4, 2);
+        buf.put(offset + 8, (byte) 'h');
+        buf.put(offset + 9, (byte) 'i');
+        buf.putInt(offset + 4 + Type.STRING_TYPE.getLen(), -7);
+        TupleView view = new TupleView(td, buf, offset, new int[] { 0, 4, 4 + Type.STRING_TYPE.getLen() });
+
+        assertEquals(42, view.getInt(0));
+        assertEquals(-7, view.getInt(2));
+        assertEquals(new StringField("hi", Type.STRING_LEN), view.getField(1));
+
+        // the view reads through to the buffer until it is detached
+        buf.putInt(offset, 43);
+        assertEquals(43, view.getInt(0));
+        view.detach();
+        buf.putInt(offset, 44);
+        assertEquals(43, view.getInt(0));
+        view.setField(2, new IntField(5));
+        assertEquals(5, view.getInt(2));
+        assertEquals("43\thi\t5", view.toString());
+
+        // a new schema turns the view into a plain tuple
+        TupleDesc td2 = Utility.getTupleDesc(2);
+        view.resetTupleDesc(td2);
+        assertEquals(td2, view.getTupleDesc());
+        view.setField(1, new IntField(6));
+        assertEquals(6, view.getInt(1));
+        assertEquals(null, view.getField(0));
+    }
+
+    /**
+     * Unit test for ConcatTuple: the fields of two tuples, without copying.
+     */
+    @Test public void concatTuple() {
+        Tuple a = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple b = Utility.getHeapTuple(new int[] { 3 });
+        TupleDesc td = TupleDesc.merge(a.getTupleDesc(), b.getTupleDesc());
+        Tuple c = new ConcatTuple(td, a, b);
+        assertEquals(td, c.getTupleDesc());
+        assertEquals(new IntField(1), c.getField(0));
+        assertEquals(2, c.getInt(1));
+        assertEquals(new IntField(3), c.getField(2));
+        c.setField(2, new IntField(9));
+        assertEquals(9, c.getInt(2));
+        assertEquals(new IntField(3), b.getField(0));
+
+        // a new schema turns the concatenation into a plain tuple
+        TupleDesc td2 = Utility.getTupleDesc(1);
+        c.resetTupleDesc(td2);
+        assertEquals(td2, c.getTupleDesc());
+        c.setField(0, new IntField(8));
+        assertEquals(8, c.getInt(0));
+        assertEquals(new IntField(1), a.getField(0));
+    }
+
     /**
      * JUnit suite target
      */